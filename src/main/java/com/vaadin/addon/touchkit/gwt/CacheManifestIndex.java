@@ -0,0 +1,103 @@
+package com.vaadin.addon.touchkit.gwt;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Collection;
+import java.util.Map;
+import java.util.TreeMap;
+
+import com.google.gwt.core.ext.TreeLogger;
+import com.google.gwt.core.ext.UnableToCompleteException;
+
+/**
+ * Persists the resources of a manifest between consecutive builds, so that
+ * the next build can tell which resources actually changed.
+ * <p>
+ * The index is a text file with one resource per line: the content digest (or
+ * "-" when unknown), the size and the path, separated by tabs.
+ */
+class CacheManifestIndex {
+
+    private static final String UNKNOWN = "-";
+
+    private CacheManifestIndex() {
+    }
+
+    /**
+     * Reads a previously stored index.
+     * 
+     * @return the resources by path, empty if there is no previous index
+     */
+    static Map<String, CachedResource> read(TreeLogger logger, File file)
+            throws UnableToCompleteException {
+        Map<String, CachedResource> resources = new TreeMap<String, CachedResource>();
+        if (!file.isFile()) {
+            return resources;
+        }
+        BufferedReader reader = null;
+        try {
+            reader = new BufferedReader(new InputStreamReader(
+                    new FileInputStream(file), "UTF-8"));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split("\t", 3);
+                if (fields.length == 3) {
+                    String hash = UNKNOWN.equals(fields[0]) ? null : fields[0];
+                    resources.put(fields[2], new CachedResource(fields[2],
+                            hash, Long.parseLong(fields[1])));
+                }
+            }
+        } catch (IOException e) {
+            logger.log(TreeLogger.ERROR, "Unable to read " + file, e);
+            throw new UnableToCompleteException();
+        } catch (NumberFormatException e) {
+            logger.log(TreeLogger.WARN, "Ignoring corrupted index " + file, e);
+            resources.clear();
+        } finally {
+            close(reader);
+        }
+        return resources;
+    }
+
+    /**
+     * Stores the resources of the current build, replacing the previous index.
+     */
+    static void write(TreeLogger logger, File file,
+            Collection<CachedResource> resources)
+            throws UnableToCompleteException {
+        file.getParentFile().mkdirs();
+        Writer writer = null;
+        try {
+            writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+            for (CachedResource resource : resources) {
+                writer.write(resource.getHash() == null ? UNKNOWN : resource
+                        .getHash());
+                writer.write("\t" + resource.getSize() + "\t");
+                writer.write(resource.getPath());
+                writer.write("\n");
+            }
+        } catch (IOException e) {
+            logger.log(TreeLogger.ERROR, "Unable to write " + file, e);
+            throw new UnableToCompleteException();
+        } finally {
+            close(writer);
+        }
+    }
+
+    private static void close(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                // Ignored
+            }
+        }
+    }
+}
@@ -1,18 +1,31 @@
 package com.vaadin.addon.touchkit.gwt;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
-import java.util.Date;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
 import java.util.SortedMap;
 import java.util.SortedSet;
+import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+import java.util.zip.GZIPOutputStream;
 
 import com.google.gwt.core.ext.LinkerContext;
 import com.google.gwt.core.ext.TreeLogger;
@@ -23,6 +36,7 @@ import com.google.gwt.core.ext.linker.ArtifactSet;
 import com.google.gwt.core.ext.linker.CompilationResult;
 import com.google.gwt.core.ext.linker.ConfigurationProperty;
 import com.google.gwt.core.ext.linker.EmittedArtifact;
+import com.google.gwt.core.ext.linker.EmittedArtifact.Visibility;
 import com.google.gwt.core.ext.linker.LinkerOrder;
 import com.google.gwt.core.ext.linker.SelectionProperty;
 import com.google.gwt.core.ext.linker.Shardable;
@@ -31,6 +45,73 @@ import com.google.gwt.core.ext.linker.Shardable;
  * A GWT linker that produces a cache.manifest file describing what to cache in
  * the application cache. Very useful for specifying which resources need to be
  * available when in offline mode.
+ * <p>
+ * When the <code>touchkit.manifestlinker.serviceWorker</code> configuration
+ * property is set to <code>true</code>, a service worker script caching the
+ * same resources is emitted next to each manifest as
+ * <code>&lt;ua&gt;.sw.js</code>.
+ * <p>
+ * When the <code>touchkit.manifestlinker.buildIndexDir</code> configuration
+ * property names a directory, the resources of each manifest are persisted
+ * there in <code>&lt;module&gt;/&lt;ua&gt;.index</code> once the link has
+ * succeeded, and the next build emits <code>&lt;ua&gt;.manifest.diff</code>,
+ * listing the resources that devices actually need to download again. The
+ * report is a private artifact, it is not deployed with the widgetset. A
+ * relative directory is resolved against the working directory of the
+ * compiler, and should not be removed by clean builds, or the next report
+ * lists every resource as added.
+ * <p>
+ * When the <code>touchkit.manifestlinker.precompress</code> configuration
+ * property is <code>true</code>, a gzipped <code>.gz</code> sibling is emitted
+ * for every cached <code>.js</code>, <code>.css</code> and <code>.html</code>
+ * artifact, and the compressed paths are listed in
+ * <code>precompressed.txt</code> so that the server can pick them without
+ * compressing anything at runtime.
+ * <p>
+ * A <code>&lt;ua&gt;.manifest.json</code> report with the total size, the file
+ * count and the largest entries of each manifest is always emitted. When
+ * <code>touchkit.manifestlinker.maxBytes</code> is set, the link fails if a
+ * manifest exceeds that many bytes. The number of largest entries listed is
+ * set with <code>touchkit.manifestlinker.reportLargest</code> (10 by default).
+ * <p>
+ * Resources matching one of the regular expressions of the multi-valued
+ * <code>touchkit.manifestlinker.deferredResources</code> property, and none of
+ * <code>touchkit.manifestlinker.criticalResources</code>, are left out of the
+ * manifest so they don't delay the first install. They are listed in
+ * <code>&lt;ua&gt;.deferred</code> instead, and prefetched by the client once
+ * the application is online.
+ * <p>
+ * Resources with identical content under different names, typically across
+ * permutations, are listed in the private <code>duplicates.txt</code> report,
+ * which is not deployed. Only the service worker stores such content once.
+ * The application cache manifests still list, and the deployed widgetset
+ * still contains, every copy.
+ * <p>
+ * When <code>touchkit.manifestlinker.optimizeImages</code> is
+ * <code>true</code>, the PNG images of the additional cache roots are
+ * re-encoded, and a 1x variant is generated for every
+ * <code>name@2x.png</code> image without a <code>name.png</code> sibling. The
+ * variants are emitted as <code>images/&lt;digest&gt;.png</code> and mapped to
+ * the images they replace in <code>images.txt</code>, one line per image with
+ * the density, the original path and the variant path separated by tabs.
+ * <p>
+ * When <code>touchkit.manifestlinker.bundleMaxBytes</code> is set, the service
+ * worker installs the cached resources up to that size from a single
+ * <code>bundles/&lt;digest&gt;.json</code> bundle instead of requesting each
+ * of them separately. The application cache can't unpack bundles, so the
+ * manifests still list the bundled resources.
+ * <p>
+ * A <code>&lt;ua&gt;.preload</code> list of the resources needed to render
+ * the first page is emitted next to each manifest, one line per resource with
+ * the kind of the resource (<code>script</code>, <code>style</code> or
+ * <code>document</code>) and the path separated by a tab. The bootstrap page
+ * turns it into resource hints, so the browser fetches them in parallel. The
+ * compiled permutation is only listed when the user agent has a single one.
+ * <p>
+ * A permutation may serve several user agents when properties are collapsed,
+ * and a user agent may be served by several permutations otherwise. Each
+ * manifest caches all the permutations of its user agent, so properties other
+ * than <code>user.agent</code>, like <code>locale</code>, should be collapsed.
  */
 @LinkerOrder(LinkerOrder.Order.POST)
 @Shardable
@@ -38,11 +119,25 @@ public class CacheManifestLinker extends AbstractLinker {
 
     private final HashSet<String> cachedArtifacts = new HashSet<String>();
 
-    private static Set<String> allArtifacts = Collections
-            .synchronizedSet(new HashSet<String>());
+    /**
+     * Source files of the resources found in the additional cache roots, used
+     * when computing the content digest of the manifests.
+     */
+    private final Map<String, File> cachedResourceFiles = new HashMap<String, File>();
+
+    /**
+     * Content digests and sizes of the cached resources, computed lazily and
+     * shared by all the manifests generated in the final link.
+     */
+    private final Map<String, CachedResource> cachedResources = new HashMap<String, CachedResource>();
+
+    /**
+     * Contents generated by the linker for resources whose source file is
+     * replaced, e.g. optimized images.
+     */
+    private final Map<String, byte[]> generatedContents = new HashMap<String, byte[]>();
 
-    private static Map<String, Set<String>> generatedManifestResources = Collections
-            .synchronizedMap(new HashMap<String, Set<String>>());
+    private final Set<String> emittedBundles = new HashSet<String>();
 
     public CacheManifestLinker() {
         addCachedResource("/");
@@ -62,15 +157,15 @@ public class CacheManifestLinker extends AbstractLinker {
             ArtifactSet artifacts, boolean onePermutation)
             throws UnableToCompleteException {
 
-        loadTouchKitWidgetSetResources(context);
-
         ArtifactSet newArtifacts = new ArtifactSet(artifacts);
         
         if (onePermutation) {
-            Set<String> userAgents = new HashSet<String>();
+            SortedSet<String> userAgents = new TreeSet<String>();
+            int permutationId = 0;
 
             for (CompilationResult result : artifacts
                     .find(CompilationResult.class)) {
+                permutationId = result.getPermutationId();
                 SortedSet<SortedMap<SelectionProperty, String>> propertiesMap = result
                         .getPropertyMap();
                 for (SortedMap<SelectionProperty, String> sm : propertiesMap) {
@@ -88,49 +183,164 @@ public class CacheManifestLinker extends AbstractLinker {
                 userAgents.add("safari");
             }
 
-            SortedSet<String> hashSet = new TreeSet<String>();
+            Map<String, EmittedArtifact> emittedArtifacts = new HashMap<String, EmittedArtifact>();
 
             for (Artifact artifact : artifacts) {
                 if (artifact instanceof EmittedArtifact) {
                     EmittedArtifact ea = (EmittedArtifact) artifact;
                     String pathName = ea.getPartialPath();
                     if (acceptCachedResource(pathName)) {
-                        hashSet.add(pathName);
-                        allArtifacts.add(pathName);
+                        emittedArtifacts.put(pathName, ea);
+                        if (isPrecompressEnabled(context)) {
+                            addPrecompressed(logger, ea, newArtifacts);
+                        }
                     }
                 }
             }
 
-            for (String ua : userAgents) {
-                if (generatedManifestResources.containsKey(ua)) {
-                    generatedManifestResources.get(ua).addAll(hashSet);
-                } else {
-                    generatedManifestResources.put(ua, hashSet);
-                }
+            // Digest the permutation's resources here, in parallel with the
+            // other shards, and pass them to the final link
+            SortedMap<String, CachedResource> resources = new TreeMap<String, CachedResource>();
+            for (String pathName : emittedArtifacts.keySet()) {
+                resources.put(pathName,
+                        getCachedResource(logger, pathName, emittedArtifacts));
             }
+            newArtifacts.add(new PermutationResourcesArtifact(permutationId,
+                    userAgents, resources));
 
         } else {
 
+            loadTouchKitWidgetSetResources(logger, context);
+            if (isImageOptimizationEnabled(context)) {
+                newArtifacts.add(optimizeImages(logger, newArtifacts));
+            }
+
+            // Collect the resources of all permutations, sorted so that the
+            // result does not depend on the order the shards were linked in
+            SortedSet<PermutationResourcesArtifact> permutations = artifacts
+                    .find(PermutationResourcesArtifact.class);
+            Set<String> permutationResources = new HashSet<String>();
+            SortedMap<String, SortedSet<String>> manifestResources = new TreeMap<String, SortedSet<String>>();
+            Map<String, Integer> permutationCounts = new HashMap<String, Integer>();
+            for (PermutationResourcesArtifact permutation : permutations) {
+                cachedResources.putAll(permutation.getResources());
+                permutationResources.addAll(permutation.getResources()
+                        .keySet());
+                for (String ua : permutation.getUserAgents()) {
+                    SortedSet<String> resources = manifestResources.get(ua);
+                    if (resources == null) {
+                        resources = new TreeSet<String>();
+                        manifestResources.put(ua, resources);
+                        permutationCounts.put(ua, 0);
+                    }
+                    resources.addAll(permutation.getResources().keySet());
+                    permutationCounts.put(ua, permutationCounts.get(ua) + 1);
+                }
+            }
+            for (Entry<String, Integer> e : permutationCounts.entrySet()) {
+                if (e.getValue() > 1) {
+                    // A manifest caches every permutation of its user agent,
+                    // so each value of another property (e.g. locale)
+                    // multiplies what the devices download
+                    logger.log(TreeLogger.WARN, e.getKey()
+                            + ".manifest caches " + e.getValue()
+                            + " permutations, consider collapsing the other"
+                            + " deferred binding properties (e.g. locale)");
+                }
+            }
+            newArtifacts.removeAll(permutations);
+
+            Map<String, EmittedArtifact> emittedArtifacts = new HashMap<String, EmittedArtifact>();
             for (Artifact artifact : artifacts) {
                 if (artifact instanceof EmittedArtifact) {
                     EmittedArtifact ea = (EmittedArtifact) artifact;
                     String pathName = ea.getPartialPath();
                     if (acceptCachedResource(pathName)) {
-                        if (!allArtifacts.contains(pathName)) {
+                        emittedArtifacts.put(pathName, ea);
+                        if (!permutationResources.contains(pathName)) {
                             // common stuff like kickstart script, included
                             // scripts, styles, images etc..
                             cachedArtifacts.add(pathName);
+                            if (isPrecompressEnabled(context)) {
+                                addPrecompressed(logger, ea, newArtifacts);
+                            }
                         }
                     }
                 }
             }
 
-            for (Entry<String, Set<String>> e : generatedManifestResources
+            List<Pattern> deferredPatterns = getPatterns(logger, context,
+                    "touchkit.manifestlinker.deferredResources");
+            List<Pattern> criticalPatterns = getPatterns(logger, context,
+                    "touchkit.manifestlinker.criticalResources");
+            long bundleMaxBytes = getLongConfigurationProperty(logger,
+                    context, "touchkit.manifestlinker.bundleMaxBytes", -1);
+            Map<String, List<CachedResource>> indexedResources = new TreeMap<String, List<CachedResource>>();
+
+            for (Entry<String, SortedSet<String>> e : manifestResources
                     .entrySet()) {
                 e.getValue().addAll(cachedArtifacts);
+                List<CachedResource> resources = new ArrayList<CachedResource>();
+                List<CachedResource> critical = new ArrayList<CachedResource>();
+                List<CachedResource> deferred = new ArrayList<CachedResource>();
+                for (String fn : e.getValue()) {
+                    CachedResource resource = getCachedResource(logger, fn,
+                            emittedArtifacts);
+                    resources.add(resource);
+                    if (isDeferred(fn, deferredPatterns, criticalPatterns)) {
+                        deferred.add(resource);
+                    } else {
+                        critical.add(resource);
+                    }
+                }
                 newArtifacts.add(createCacheManifest(context, logger,
-                        e.getValue(), e.getKey()));
+                        critical, e.getKey()));
+                if (!deferred.isEmpty()) {
+                    newArtifacts.add(createDeferredList(logger, deferred,
+                            e.getKey()));
+                }
+                newArtifacts.add(createSizeReport(logger, context, critical,
+                        deferred, e.getKey()));
+                newArtifacts.add(createPreloadList(logger, context, critical,
+                        e.getKey()));
+                if (isServiceWorkerEnabled(context)) {
+                    List<CachedResource> bundled = new ArrayList<CachedResource>();
+                    for (CachedResource resource : critical) {
+                        if (resource.getHash() != null
+                                && resource.getSize() <= bundleMaxBytes) {
+                            bundled.add(resource);
+                        }
+                    }
+                    String bundle = null;
+                    if (bundled.size() > 1) {
+                        bundle = createResourceBundle(logger, context,
+                                bundled, emittedArtifacts, newArtifacts);
+                    } else {
+                        bundled.clear();
+                    }
+                    newArtifacts.add(createServiceWorker(logger, critical,
+                            deferred, bundle, bundled, e.getKey()));
+                }
+                indexedResources.put(e.getKey(), resources);
+            }
+
+            // Only advance the index once every manifest is within budget
+            String buildIndexDir = getConfigurationProperty(context,
+                    "touchkit.manifestlinker.buildIndexDir");
+            if (buildIndexDir != null && buildIndexDir.length() > 0) {
+                File indexDir = new File(buildIndexDir,
+                        context.getModuleName());
+                for (Entry<String, List<CachedResource>> e : indexedResources
+                        .entrySet()) {
+                    newArtifacts.add(createManifestDiff(logger, indexDir,
+                            e.getValue(), e.getKey()));
+                }
+            }
+
+            if (isPrecompressEnabled(context)) {
+                newArtifacts.add(createPrecompressedTable(logger, newArtifacts));
             }
+            newArtifacts.add(createDuplicateReport(logger));
         }
 
         return newArtifacts;
@@ -138,54 +348,115 @@ public class CacheManifestLinker extends AbstractLinker {
 
     /**
      * Traverses directories specified in gwt modules to be added to cache
-     * manifests. E.g. themes.
+     * manifests. E.g. themes. Only needed in the final link, where the
+     * manifests are generated.
      * 
+     * @param logger
      * @param context
+     * @throws UnableToCompleteException
      */
-    private void loadTouchKitWidgetSetResources(LinkerContext context) {
-        synchronized (cachedArtifacts) {
-            SortedSet<ConfigurationProperty> configurationProperties = context
-                    .getConfigurationProperties();
-            for (ConfigurationProperty configurationProperty : configurationProperties) {
-                if (configurationProperty.getName().equals(
-                        "touchkit.manifestlinker.additionalCacheRoot")) {
-                    List<String> values = configurationProperty.getValues();
-                    for (String root : values) {
-                        addResourcesRecursively(root);
-                    }
-                    break;
+    private void loadTouchKitWidgetSetResources(TreeLogger logger,
+            LinkerContext context) throws UnableToCompleteException {
+        SortedSet<ConfigurationProperty> configurationProperties = context
+                .getConfigurationProperties();
+        for (ConfigurationProperty configurationProperty : configurationProperties) {
+            if (configurationProperty.getName().equals(
+                    "touchkit.manifestlinker.additionalCacheRoot")) {
+                List<String> values = configurationProperty.getValues();
+                for (String root : values) {
+                    addResourcesRecursively(logger, root);
                 }
+                break;
             }
         }
     }
 
-    private void addResourcesRecursively(String root) {
+    private static String getConfigurationProperty(LinkerContext context,
+            String name) {
+        for (ConfigurationProperty configurationProperty : context
+                .getConfigurationProperties()) {
+            if (configurationProperty.getName().equals(name)) {
+                List<String> values = configurationProperty.getValues();
+                return values.isEmpty() ? null : values.get(0);
+            }
+        }
+        return null;
+    }
 
-        String[] split = root.split(":");
+    private static List<Pattern> getPatterns(TreeLogger logger,
+            LinkerContext context, String name)
+            throws UnableToCompleteException {
+        List<Pattern> patterns = new ArrayList<Pattern>();
+        for (ConfigurationProperty configurationProperty : context
+                .getConfigurationProperties()) {
+            if (configurationProperty.getName().equals(name)) {
+                for (String value : configurationProperty.getValues()) {
+                    if (value == null || value.length() == 0) {
+                        continue;
+                    }
+                    try {
+                        patterns.add(Pattern.compile(value));
+                    } catch (PatternSyntaxException e) {
+                        logger.log(TreeLogger.ERROR, "Invalid pattern in "
+                                + name + ": " + value, e);
+                        throw new UnableToCompleteException();
+                    }
+                }
+            }
+        }
+        return patterns;
+    }
 
-        String sourcePath = split[0];
-        String relativeRoot = split[1];
+    /**
+     * @return true if the resource should be left out of the manifest and
+     *         prefetched later
+     */
+    static boolean isDeferred(String filename, List<Pattern> deferredPatterns,
+            List<Pattern> criticalPatterns) {
+        return matches(filename, deferredPatterns)
+                && !matches(filename, criticalPatterns);
+    }
 
-        File file = new File(sourcePath);
-        if (file.isDirectory()) {
-            String[] list = file.list();
-            for (String child : list) {
-                doAdd(file, child, relativeRoot);
+    private static boolean matches(String filename, List<Pattern> patterns) {
+        for (Pattern pattern : patterns) {
+            if (pattern.matcher(filename).matches()) {
+                return true;
             }
         }
+        return false;
+    }
+
+    protected boolean isServiceWorkerEnabled(LinkerContext context) {
+        return Boolean.parseBoolean(getConfigurationProperty(context,
+                "touchkit.manifestlinker.serviceWorker"));
+    }
+
+    protected boolean isPrecompressEnabled(LinkerContext context) {
+        return Boolean.parseBoolean(getConfigurationProperty(context,
+                "touchkit.manifestlinker.precompress"));
     }
 
-    private void doAdd(File f, String relativePath, final String relativeRoot) {
-        File file2 = new File(f, relativePath);
-        if (file2.isDirectory()) {
-            String[] list = file2.list();
-            for (String string : list) {
-                doAdd(file2, string, relativeRoot + "/" + file2.getName());
+    protected boolean isImageOptimizationEnabled(LinkerContext context) {
+        return Boolean.parseBoolean(getConfigurationProperty(context,
+                "touchkit.manifestlinker.optimizeImages"));
+    }
+
+    private void addResourcesRecursively(TreeLogger logger, String root)
+            throws UnableToCompleteException {
+
+        String[] split = root.split(":");
+
+        String sourcePath = split[0];
+        String relativeRoot = split[1];
+
+        for (Entry<String, File> e : CacheRootScanner.list(logger,
+                new File(sourcePath)).entrySet()) {
+            String filename = relativeRoot + "/" + e.getKey();
+            if (acceptCachedResource(filename)) {
+                cachedArtifacts.add(filename);
+                cachedResourceFiles.put(filename, e.getValue());
             }
-        } else {
-            addCachedResource(relativeRoot + "/" + relativePath);
         }
-
     }
 
     protected void addCachedResource(Artifact<?> artifact) {
@@ -219,16 +490,19 @@ public class CacheManifestLinker extends AbstractLinker {
     }
 
     private Artifact<?> createCacheManifest(LinkerContext context,
-            TreeLogger logger, Set<String> artifacts, String userAgent)
+            TreeLogger logger, List<CachedResource> resources, String userAgent)
             throws UnableToCompleteException {
 
         StringBuilder cm = new StringBuilder();
         cm.append("CACHE MANIFEST\n");
-        cm.append("# Build time" + new Date());
+        // The version only changes when the content of a listed resource
+        // changes, so redeploying the same build does not force devices to
+        // download the whole application cache again.
+        cm.append("# Version " + computeManifestVersion(logger, resources));
         cm.append("\n\nCACHE:\n");
 
-        for (String fn : artifacts) {
-            cm.append(fn);
+        for (CachedResource resource : resources) {
+            cm.append(resource.getPath());
             cm.append("\n");
         }
         cm.append("\nNETWORK:\n");
@@ -240,4 +514,812 @@ public class CacheManifestLinker extends AbstractLinker {
         return emitString(logger, manifest, manifestName);
     }
 
+    /**
+     * Creates a service worker script that precaches the same resources as the
+     * manifest for the given user agent. Resources with a known content digest
+     * are served cache-first and only downloaded again when their digest
+     * changes, the rest (e.g. the bootstrap page) are served
+     * stale-while-revalidate.
+     */
+    private Artifact<?> createServiceWorker(TreeLogger logger,
+            List<CachedResource> critical, List<CachedResource> deferred,
+            String bundle, List<CachedResource> bundled, String userAgent)
+            throws UnableToCompleteException {
+
+        List<CachedResource> all = new ArrayList<CachedResource>(critical);
+        all.addAll(deferred);
+
+        StringBuilder sw = new StringBuilder();
+        sw.append("// Generated by TouchKit CacheManifestLinker\n");
+        sw.append("var PREFIX = \"touchkit-" + userAgent + "-\";\n");
+        sw.append("var CACHE = PREFIX + \""
+                + computeManifestVersion(logger, all) + "\";\n");
+        appendResourceMap(sw, "RESOURCES", critical);
+        appendResourceMap(sw, "DEFERRED", deferred);
+        sw.append("var BUNDLE = ")
+                .append(bundle == null ? "null" : toJsString(bundle))
+                .append(";\nvar BUNDLED = [");
+        for (int i = 0; i < bundled.size(); i++) {
+            sw.append(i == 0 ? "\n  " : ",\n  ").append(
+                    toJsString(bundled.get(i).getPath()));
+        }
+        sw.append("\n];\n");
+        sw.append(SERVICE_WORKER_SCRIPT);
+
+        return emitString(logger, sw.toString(), userAgent + ".sw.js");
+    }
+
+    private static void appendResourceMap(StringBuilder sw, String name,
+            List<CachedResource> resources) {
+        sw.append("var ").append(name).append(" = {\n");
+        for (Iterator<CachedResource> it = resources.iterator(); it
+                .hasNext();) {
+            CachedResource resource = it.next();
+            sw.append("  ").append(toJsString(resource.getPath()))
+                    .append(": \"");
+            if (resource.getHash() != null) {
+                sw.append(resource.getHash());
+            }
+            sw.append(it.hasNext() ? "\",\n" : "\"\n");
+        }
+        sw.append("};\n");
+    }
+
+    /**
+     * Deferred resources are only precached by the service worker if they
+     * were cached by a previous version, otherwise they are cached on their
+     * first use. Like the application cache, a new version only takes over
+     * once the pages using the previous one are closed, as they may still
+     * load fragments that only the previous cache has.
+     */
+    private static final String SERVICE_WORKER_SCRIPT = ""
+            + "var URLS = {};\n"
+            + "var KEYS = {};\n"
+            + "var PRECACHE = {};\n"
+            + "function addUrls(resources, precache) {\n"
+            + "  Object.keys(resources).forEach(function(path) {\n"
+            + "    var url = new URL(path, self.location).href;\n"
+            + "    var hash = resources[path];\n"
+            + "    URLS[url] = hash;\n"
+            + "    PRECACHE[url] = precache;\n"
+            + "    // Identical content is stored once under its digest, except\n"
+            + "    // for documents and style sheets that resolve relative\n"
+            + "    // references against their own URL\n"
+            + "    KEYS[url] = !hash ? url : new URL(\"touchkit-content/\" + hash\n"
+            + "        + (/\\.(css|html)$/.test(path) ? \"/\" + encodeURIComponent(path) : \"\"),\n"
+            + "        self.location).href;\n"
+            + "  });\n"
+            + "}\n"
+            + "addUrls(RESOURCES, true);\n"
+            + "addUrls(DEFERRED, false);\n"
+            + "var IN_BUNDLE = {};\n"
+            + "BUNDLED.forEach(function(path) {\n"
+            + "  IN_BUNDLE[new URL(path, self.location).href] = true;\n"
+            + "});\n"
+            + "function previousCache() {\n"
+            + "  return caches.keys().then(function(names) {\n"
+            + "    var old = names.filter(function(name) {\n"
+            + "      return name.indexOf(PREFIX) == 0 && name != CACHE;\n"
+            + "    });\n"
+            + "    return old.length ? caches.open(old[0]) : null;\n"
+            + "  });\n"
+            + "}\n"
+            + "function unpack(cache) {\n"
+            + "  return fetch(new URL(BUNDLE, self.location).href).then(function(response) {\n"
+            + "    if (!response.ok) {\n"
+            + "      throw new Error(\"Unable to fetch \" + BUNDLE);\n"
+            + "    }\n"
+            + "    return response.json();\n"
+            + "  }).then(function(entries) {\n"
+            + "    return Promise.all(Object.keys(entries).map(function(path) {\n"
+            + "      var data = atob(entries[path][1]);\n"
+            + "      var bytes = new Uint8Array(data.length);\n"
+            + "      for (var i = 0; i < data.length; i++) {\n"
+            + "        bytes[i] = data.charCodeAt(i);\n"
+            + "      }\n"
+            + "      return cache.put(KEYS[new URL(path, self.location).href],\n"
+            + "          new Response(bytes, {headers: {\"Content-Type\": entries[path][0]}}));\n"
+            + "    }));\n"
+            + "  });\n"
+            + "}\n"
+            + "function install(cache, old) {\n"
+            + "  var installed = {};\n"
+            + "  var unbundle = false;\n"
+            + "  return Promise.all(Object.keys(URLS).map(function(url) {\n"
+            + "    var key = KEYS[url];\n"
+            + "    if (installed[key]) {\n"
+            + "      return null;\n"
+            + "    }\n"
+            + "    installed[key] = true;\n"
+            + "    return (old && URLS[url] ? old.match(key) : Promise.resolve(null))\n"
+            + "        .then(function(response) {\n"
+            + "          if (response) {\n"
+            + "            return cache.put(key, response);\n"
+            + "          }\n"
+            + "          if (!PRECACHE[url]) {\n"
+            + "            return null;\n"
+            + "          }\n"
+            + "          if (IN_BUNDLE[url]) {\n"
+            + "            unbundle = true;\n"
+            + "            return null;\n"
+            + "          }\n"
+            + "          return fetch(url).then(function(response) {\n"
+            + "            if (!response.ok) {\n"
+            + "              throw new Error(\"Unable to fetch \" + url);\n"
+            + "            }\n"
+            + "            return cache.put(key, response);\n"
+            + "          });\n"
+            + "        });\n"
+            + "  })).then(function() {\n"
+            + "    return unbundle ? unpack(cache) : null;\n"
+            + "  });\n"
+            + "}\n"
+            + "self.addEventListener(\"install\", function(event) {\n"
+            + "  event.waitUntil(Promise.all([caches.open(CACHE), previousCache()])\n"
+            + "      .then(function(c) {\n"
+            + "        return install(c[0], c[1]);\n"
+            + "      }));\n"
+            + "});\n"
+            + "// Activated once no page uses the previous version, so its cache\n"
+            + "// is no longer needed for the fragments loaded on demand\n"
+            + "self.addEventListener(\"activate\", function(event) {\n"
+            + "  event.waitUntil(caches.keys().then(function(names) {\n"
+            + "    return Promise.all(names.filter(function(name) {\n"
+            + "      return name.indexOf(PREFIX) == 0 && name != CACHE;\n"
+            + "    }).map(function(name) {\n"
+            + "      return caches.delete(name);\n"
+            + "    }));\n"
+            + "  }));\n"
+            + "});\n"
+            + "self.addEventListener(\"fetch\", function(event) {\n"
+            + "  var url = event.request.url;\n"
+            + "  if (event.request.method != \"GET\" || !(url in URLS)) {\n"
+            + "    return;\n"
+            + "  }\n"
+            + "  var key = KEYS[url];\n"
+            + "  event.respondWith(caches.open(CACHE).then(function(cache) {\n"
+            + "    return cache.match(key).then(function(cached) {\n"
+            + "      function update() {\n"
+            + "        return fetch(event.request).then(function(response) {\n"
+            + "          if (response.ok) {\n"
+            + "            cache.put(key, response.clone());\n"
+            + "          }\n"
+            + "          return response;\n"
+            + "        });\n"
+            + "      }\n"
+            + "      if (!cached) {\n"
+            + "        return update();\n"
+            + "      }\n"
+            + "      if (!URLS[url]) {\n"
+            + "        // No content digest, revalidate in the background\n"
+            + "        event.waitUntil(update().catch(function() {}));\n"
+            + "      }\n"
+            + "      return cached;\n"
+            + "    });\n"
+            + "  }));\n"
+            + "});\n";
+
+    private static String toJsString(String string) {
+        return "\"" + string.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+    }
+
+    /**
+     * Creates a report of the cached resources sharing the same content. Each
+     * group of duplicates is listed as lines with the digest, the size and the
+     * path, separated by tabs, followed by an empty line.
+     */
+    private Artifact<?> createDuplicateReport(TreeLogger logger)
+            throws UnableToCompleteException {
+        SortedMap<String, SortedSet<CachedResource>> byHash = new TreeMap<String, SortedSet<CachedResource>>();
+        for (CachedResource resource : cachedResources.values()) {
+            if (resource.getHash() == null) {
+                continue;
+            }
+            SortedSet<CachedResource> group = byHash.get(resource.getHash());
+            if (group == null) {
+                group = new TreeSet<CachedResource>(
+                        new Comparator<CachedResource>() {
+                            @Override
+                            public int compare(CachedResource o1,
+                                    CachedResource o2) {
+                                return o1.getPath().compareTo(o2.getPath());
+                            }
+                        });
+                byHash.put(resource.getHash(), group);
+            }
+            group.add(resource);
+        }
+
+        StringBuilder groups = new StringBuilder();
+        int duplicateCount = 0;
+        long duplicateBytes = 0;
+        for (SortedSet<CachedResource> group : byHash.values()) {
+            if (group.size() < 2) {
+                continue;
+            }
+            duplicateCount += group.size() - 1;
+            duplicateBytes += (group.size() - 1) * group.first().getSize();
+            for (CachedResource resource : group) {
+                groups.append(resource.getHash()).append("\t")
+                        .append(resource.getSize()).append("\t")
+                        .append(resource.getPath()).append("\n");
+            }
+            groups.append("\n");
+        }
+        if (duplicateCount > 0) {
+            logger.log(TreeLogger.INFO, duplicateCount
+                    + " cached resources duplicate the content of another one ("
+                    + duplicateBytes + " bytes), see duplicates.txt");
+        }
+
+        EmittedArtifact artifact = emitString(logger, "# " + duplicateCount
+                + " resources duplicate the content of another one, "
+                + duplicateBytes + " bytes\n" + groups, "duplicates.txt");
+        artifact.setVisibility(Visibility.Private);
+        return artifact;
+    }
+
+    /**
+     * Creates the list of deferred resources, one path relative to the
+     * manifest per line.
+     */
+    private Artifact<?> createDeferredList(TreeLogger logger,
+            List<CachedResource> deferred, String userAgent)
+            throws UnableToCompleteException {
+        StringBuilder list = new StringBuilder();
+        for (CachedResource resource : deferred) {
+            list.append(resource.getPath()).append("\n");
+        }
+        return emitString(logger, list.toString(), userAgent + ".deferred");
+    }
+
+    /**
+     * Creates the list of the resources the bootstrap page should hint: the
+     * selection script, the compiled permutation and the theme style sheets.
+     * The permutation is only listed if the user agent has exactly one,
+     * otherwise each device would fetch all of them.
+     */
+    private Artifact<?> createPreloadList(TreeLogger logger,
+            LinkerContext context, List<CachedResource> resources,
+            String userAgent) throws UnableToCompleteException {
+        List<String> scripts = new ArrayList<String>();
+        List<String> documents = new ArrayList<String>();
+        StringBuilder list = new StringBuilder();
+        list.append("script\t").append(context.getModuleName())
+                .append(".nocache.js\n");
+        for (CachedResource resource : resources) {
+            String path = resource.getPath();
+            if (PERMUTATION_SCRIPT.matcher(path).matches()) {
+                scripts.add(path);
+            } else if (PERMUTATION_DOCUMENT.matcher(path).matches()) {
+                documents.add(path);
+            } else if (THEME_STYLES.matcher(path).matches()) {
+                list.append("style\t").append(path).append("\n");
+            }
+        }
+        if (scripts.size() == 1) {
+            list.append("script\t").append(scripts.get(0)).append("\n");
+        }
+        if (documents.size() == 1) {
+            list.append("document\t").append(documents.get(0)).append("\n");
+        }
+        return emitString(logger, list.toString(), userAgent + ".preload");
+    }
+
+    private static final Pattern PERMUTATION_SCRIPT = Pattern
+            .compile("[0-9A-F]{32}\\.cache\\.js");
+
+    private static final Pattern PERMUTATION_DOCUMENT = Pattern
+            .compile("[0-9A-F]{32}\\.cache\\.html");
+
+    private static final Pattern THEME_STYLES = Pattern
+            .compile(".*/VAADIN/themes/[^/]+/styles\\.css");
+
+    /**
+     * Creates the size report of a manifest and enforces the configured size
+     * budget. The budget only applies to the resources in the manifest, the
+     * deferred ones don't delay the install.
+     */
+    private Artifact<?> createSizeReport(TreeLogger logger,
+            LinkerContext context, List<CachedResource> resources,
+            List<CachedResource> deferred, String userAgent)
+            throws UnableToCompleteException {
+        long maxBytes = getLongConfigurationProperty(logger, context,
+                "touchkit.manifestlinker.maxBytes", 0);
+        int reportLargest = (int) getLongConfigurationProperty(logger,
+                context, "touchkit.manifestlinker.reportLargest", 10);
+        return emitString(logger, buildSizeReport(logger, resources, deferred,
+                userAgent, maxBytes, reportLargest), userAgent
+                + ".manifest.json");
+    }
+
+    /**
+     * Builds the JSON size report of a manifest.
+     * 
+     * @param maxBytes
+     *            the size budget of the manifest, or 0 for no budget
+     * @param reportLargest
+     *            the number of largest resources to list
+     * @throws UnableToCompleteException
+     *             if the resources exceed the budget
+     */
+    static String buildSizeReport(TreeLogger logger,
+            List<CachedResource> resources, List<CachedResource> deferred,
+            String userAgent, long maxBytes, int reportLargest)
+            throws UnableToCompleteException {
+        long totalBytes = 0;
+        List<CachedResource> largest = new ArrayList<CachedResource>();
+        for (CachedResource resource : resources) {
+            if (resource.getSize() > 0) {
+                totalBytes += resource.getSize();
+                largest.add(resource);
+            }
+        }
+        Collections.sort(largest, new Comparator<CachedResource>() {
+            @Override
+            public int compare(CachedResource o1, CachedResource o2) {
+                return o1.getSize() > o2.getSize() ? -1 : (o1.getSize() == o2
+                        .getSize() ? o1.getPath().compareTo(o2.getPath()) : 1);
+            }
+        });
+        largest = largest.subList(0, Math.min(reportLargest, largest.size()));
+
+        long deferredBytes = 0;
+        for (CachedResource resource : deferred) {
+            deferredBytes += Math.max(0, resource.getSize());
+        }
+
+        StringBuilder report = new StringBuilder();
+        report.append("{\n  \"manifest\": ")
+                .append(toJsString(userAgent + ".manifest"))
+                .append(",\n  \"totalBytes\": ").append(totalBytes)
+                .append(",\n  \"fileCount\": ").append(resources.size())
+                .append(",\n  \"deferredBytes\": ").append(deferredBytes)
+                .append(",\n  \"deferredCount\": ").append(deferred.size())
+                .append(",\n  \"maxBytes\": ")
+                .append(maxBytes > 0 ? String.valueOf(maxBytes) : "null")
+                .append(",\n  \"largest\": [");
+        for (int i = 0; i < largest.size(); i++) {
+            report.append(i == 0 ? "\n" : ",\n").append("    {\"path\": ")
+                    .append(toJsString(largest.get(i).getPath()))
+                    .append(", \"bytes\": ").append(largest.get(i).getSize())
+                    .append("}");
+        }
+        report.append("\n  ]\n}\n");
+
+        if (maxBytes > 0 && totalBytes > maxBytes) {
+            TreeLogger branch = logger.branch(TreeLogger.ERROR, userAgent
+                    + ".manifest caches " + totalBytes
+                    + " bytes, which exceeds the budget of " + maxBytes
+                    + " bytes. Largest entries:");
+            for (CachedResource resource : largest) {
+                branch.log(TreeLogger.ERROR, resource.getSize() + " bytes: "
+                        + resource.getPath());
+            }
+            throw new UnableToCompleteException();
+        }
+        return report.toString();
+    }
+
+    private static long getLongConfigurationProperty(TreeLogger logger,
+            LinkerContext context, String name, long defaultValue)
+            throws UnableToCompleteException {
+        String value = getConfigurationProperty(context, name);
+        if (value == null || value.trim().length() == 0) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            logger.log(TreeLogger.ERROR, "Invalid value for " + name + ": "
+                    + value, e);
+            throw new UnableToCompleteException();
+        }
+    }
+
+    /**
+     * Emits the optimized variants of the PNG images found in the additional
+     * cache roots and creates the table mapping them to the original images.
+     */
+    private Artifact<?> optimizeImages(TreeLogger logger,
+            ArtifactSet newArtifacts) throws UnableToCompleteException {
+        StringBuilder table = new StringBuilder();
+        // Iterate a copy, generated 1x variants are added as resources
+        for (Entry<String, File> e : new TreeMap<String, File>(
+                cachedResourceFiles).entrySet()) {
+            String filename = e.getKey();
+            if (!filename.endsWith(".png")) {
+                continue;
+            }
+            boolean hiDpi = filename.endsWith("@2x.png");
+            try {
+                byte[] optimized = ImageOptimizer.recompress(e.getValue());
+                if (optimized != null) {
+                    table.append(hiDpi ? "2x\t" : "1x\t")
+                            .append(filename)
+                            .append("\t")
+                            .append(addImageVariant(logger, filename,
+                                    optimized, newArtifacts)).append("\n");
+                }
+                if (hiDpi) {
+                    String lowDpi = filename.substring(0, filename.length()
+                            - "@2x.png".length())
+                            + ".png";
+                    byte[] halved = cachedResourceFiles.containsKey(lowDpi) ? null
+                            : ImageOptimizer.halve(e.getValue());
+                    if (halved != null) {
+                        cachedArtifacts.add(lowDpi);
+                        table.append("1x\t")
+                                .append(lowDpi)
+                                .append("\t")
+                                .append(addImageVariant(logger, lowDpi,
+                                        halved, newArtifacts)).append("\n");
+                    }
+                }
+            } catch (IOException ex) {
+                logger.log(TreeLogger.WARN, "Unable to optimize "
+                        + e.getValue(), ex);
+            }
+        }
+        return emitString(logger, table.toString(), "images.txt");
+    }
+
+    /**
+     * Emits an image variant under a name derived from its content. The
+     * server sends the variant for the original URL, so the resource is
+     * digested as the variant.
+     * 
+     * @return the path of the variant, relative to the module directory
+     */
+    private String addImageVariant(TreeLogger logger, String filename,
+            byte[] bytes, ArtifactSet newArtifacts)
+            throws UnableToCompleteException {
+        String hash = toHex(createDigest(logger).digest(bytes));
+        String variant = "images/" + hash + ".png";
+        newArtifacts.add(emitBytes(logger, bytes, variant));
+        generatedContents.put(filename, bytes);
+        cachedResources.put(filename, new CachedResource(filename, hash,
+                bytes.length));
+        return variant;
+    }
+
+    /**
+     * Emits a bundle of the given resources, named after their paths and
+     * digests. The bundle is a JSON object mapping the path of each resource
+     * to its content type and base64 encoded content.
+     * 
+     * @return the path of the bundle, relative to the module directory
+     */
+    private String createResourceBundle(TreeLogger logger,
+            LinkerContext context, List<CachedResource> resources,
+            Map<String, EmittedArtifact> emittedArtifacts,
+            ArtifactSet newArtifacts) throws UnableToCompleteException {
+        MessageDigest digest = createDigest(logger);
+        StringBuilder bundle = new StringBuilder("{");
+        for (int i = 0; i < resources.size(); i++) {
+            CachedResource resource = resources.get(i);
+            digest.update(getBytes(resource.getPath() + "\t"
+                    + resource.getHash() + "\n"));
+            bundle.append(i == 0 ? "\n" : ",\n")
+                    .append(toJsString(resource.getPath()))
+                    .append(": [")
+                    .append(toJsString(getContentType(resource.getPath())))
+                    .append(", \"")
+                    .append(toBase64(getContents(
+                            logger, resource.getPath(), emittedArtifacts)))
+                    .append("\"]");
+        }
+        bundle.append("\n}\n");
+
+        String bundleName = "bundles/" + toHex(digest.digest()) + ".json";
+        if (!emittedBundles.add(bundleName)) {
+            // Shared with another permutation
+            return bundleName;
+        }
+        EmittedArtifact artifact = emitString(logger, bundle.toString(),
+                bundleName);
+        newArtifacts.add(artifact);
+        if (isPrecompressEnabled(context)) {
+            addPrecompressed(logger, artifact, newArtifacts);
+        }
+        return bundleName;
+    }
+
+    private byte[] getContents(TreeLogger logger, String filename,
+            Map<String, EmittedArtifact> emittedArtifacts)
+            throws UnableToCompleteException {
+        if (generatedContents.containsKey(filename)) {
+            return generatedContents.get(filename);
+        }
+        EmittedArtifact ea = emittedArtifacts.get(filename);
+        InputStream in;
+        try {
+            in = ea != null ? ea.getContents(logger) : new FileInputStream(
+                    cachedResourceFiles.get(filename));
+        } catch (IOException e) {
+            logger.log(TreeLogger.ERROR, "Unable to read " + filename, e);
+            throw new UnableToCompleteException();
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try {
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                bytes.write(buffer, 0, read);
+            }
+        } catch (IOException e) {
+            logger.log(TreeLogger.ERROR, "Unable to read " + filename, e);
+            throw new UnableToCompleteException();
+        } finally {
+            try {
+                in.close();
+            } catch (IOException e) {
+                // Ignored
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+    private static String getContentType(String filename) {
+        String extension = filename.substring(filename.lastIndexOf('.') + 1)
+                .toLowerCase();
+        String contentType = CONTENT_TYPES.get(extension);
+        return contentType != null ? contentType : "application/octet-stream";
+    }
+
+    private static final Map<String, String> CONTENT_TYPES = new HashMap<String, String>();
+    static {
+        CONTENT_TYPES.put("css", "text/css");
+        CONTENT_TYPES.put("gif", "image/gif");
+        CONTENT_TYPES.put("html", "text/html");
+        CONTENT_TYPES.put("jpeg", "image/jpeg");
+        CONTENT_TYPES.put("jpg", "image/jpeg");
+        CONTENT_TYPES.put("js", "application/javascript");
+        CONTENT_TYPES.put("json", "application/json");
+        CONTENT_TYPES.put("png", "image/png");
+        CONTENT_TYPES.put("svg", "image/svg+xml");
+        CONTENT_TYPES.put("ttf", "application/x-font-ttf");
+        CONTENT_TYPES.put("woff", "application/font-woff");
+    }
+
+    /**
+     * Adds a gzipped sibling of the given artifact to the artifact set, if the
+     * artifact is text content that gets smaller when compressed.
+     */
+    private void addPrecompressed(TreeLogger logger, EmittedArtifact ea,
+            ArtifactSet newArtifacts) throws UnableToCompleteException {
+        String pathName = ea.getPartialPath();
+        if (!pathName.endsWith(".js") && !pathName.endsWith(".css")
+                && !pathName.endsWith(".html") && !pathName.endsWith(".json")) {
+            return;
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        long size = 0;
+        InputStream in = ea.getContents(logger);
+        try {
+            GZIPOutputStream gzip = new GZIPOutputStream(bytes);
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                gzip.write(buffer, 0, read);
+                size += read;
+            }
+            gzip.close();
+        } catch (IOException e) {
+            logger.log(TreeLogger.ERROR, "Unable to compress " + pathName, e);
+            throw new UnableToCompleteException();
+        } finally {
+            try {
+                in.close();
+            } catch (IOException e) {
+                // Ignored
+            }
+        }
+        if (bytes.size() < size) {
+            newArtifacts.add(emitBytes(logger, bytes.toByteArray(), pathName
+                    + ".gz", ea.getLastModified()));
+        }
+    }
+
+    /**
+     * Creates the list of the artifacts having a gzipped sibling, one path
+     * relative to the module directory per line.
+     */
+    private Artifact<?> createPrecompressedTable(TreeLogger logger,
+            ArtifactSet artifacts) throws UnableToCompleteException {
+        SortedSet<String> precompressed = new TreeSet<String>();
+        for (EmittedArtifact ea : artifacts.find(EmittedArtifact.class)) {
+            String pathName = ea.getPartialPath();
+            if (pathName.endsWith(".gz")) {
+                precompressed.add(pathName.substring(0,
+                        pathName.length() - ".gz".length()));
+            }
+        }
+        StringBuilder table = new StringBuilder();
+        for (String pathName : precompressed) {
+            table.append(pathName).append("\n");
+        }
+        return emitString(logger, table.toString(), "precompressed.txt");
+    }
+
+    /**
+     * Compares the resources of a manifest with the index persisted by the
+     * previous build and emits a report of the resources that changed. The
+     * index is then replaced with the current resources.
+     */
+    private Artifact<?> createManifestDiff(TreeLogger logger, File indexDir,
+            List<CachedResource> resources, String userAgent)
+            throws UnableToCompleteException {
+        File indexFile = new File(indexDir, userAgent + ".index");
+        String report = diffManifest(
+                CacheManifestIndex.read(logger, indexFile), resources);
+        CacheManifestIndex.write(logger, indexFile, resources);
+
+        EmittedArtifact artifact = emitString(logger, report, userAgent
+                + ".manifest.diff");
+        artifact.setVisibility(Visibility.Private);
+        return artifact;
+    }
+
+    /**
+     * Lists the resources that changed since the previous build, one per
+     * line: "A" (added), "M" (modified) or "D" (deleted), the size in bytes
+     * and the path, separated by tabs.
+     * 
+     * @param previous
+     *            the resources of the previous build by path, emptied by this
+     *            method
+     * @param resources
+     *            the resources of the current build
+     * @return the report
+     */
+    static String diffManifest(Map<String, CachedResource> previous,
+            List<CachedResource> resources) {
+        StringBuilder changes = new StringBuilder();
+        long totalBytes = 0;
+        long changedBytes = 0;
+        int changedCount = 0;
+        for (CachedResource resource : resources) {
+            long size = Math.max(0, resource.getSize());
+            totalBytes += size;
+            CachedResource old = previous.remove(resource.getPath());
+            if (!resource.isUnchanged(old)) {
+                changes.append(old == null ? "A\t" : "M\t").append(size)
+                        .append("\t").append(resource.getPath()).append("\n");
+                changedBytes += size;
+                changedCount++;
+            }
+        }
+        for (CachedResource removed : previous.values()) {
+            changes.append("D\t0\t").append(removed.getPath()).append("\n");
+        }
+        return "# " + changedCount + " of " + resources.size()
+                + " resources changed, " + changedBytes + " of " + totalBytes
+                + " bytes to download\n" + changes;
+    }
+
+    /**
+     * Computes a digest over the names and contents of all the resources
+     * listed in a manifest.
+     * 
+     * @param logger
+     * @param resources
+     *            the sorted resources listed in the manifest
+     * @return the digest as a hexadecimal string
+     * @throws UnableToCompleteException
+     */
+    static String computeManifestVersion(TreeLogger logger,
+            List<CachedResource> resources) throws UnableToCompleteException {
+        MessageDigest digest = createDigest(logger);
+        for (CachedResource resource : resources) {
+            digest.update(getBytes(resource.getPath()));
+            if (resource.getHash() != null) {
+                digest.update(getBytes(resource.getHash()));
+            }
+        }
+        return toHex(digest.digest());
+    }
+
+    /**
+     * Returns the cached resource with the given name. The content digest is
+     * null if the content of the resource is not available at link time (e.g.
+     * the bootstrap page).
+     */
+    private CachedResource getCachedResource(TreeLogger logger,
+            String filename, Map<String, EmittedArtifact> emittedArtifacts)
+            throws UnableToCompleteException {
+        CachedResource resource = cachedResources.get(filename);
+        if (resource != null) {
+            return resource;
+        }
+        EmittedArtifact ea = emittedArtifacts.get(filename);
+        File file = cachedResourceFiles.get(filename);
+        if (ea != null) {
+            resource = digest(logger, filename, ea.getContents(logger));
+        } else if (file != null) {
+            try {
+                resource = digest(logger, filename, new FileInputStream(file));
+            } catch (IOException e) {
+                logger.log(TreeLogger.ERROR, "Unable to read " + file, e);
+                throw new UnableToCompleteException();
+            }
+        } else {
+            resource = new CachedResource(filename, null, -1);
+        }
+        cachedResources.put(filename, resource);
+        return resource;
+    }
+
+    private static CachedResource digest(TreeLogger logger, String filename,
+            InputStream in) throws UnableToCompleteException {
+        MessageDigest digest = createDigest(logger);
+        try {
+            byte[] buffer = new byte[8192];
+            long size = 0;
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+                size += read;
+            }
+            return new CachedResource(filename, toHex(digest.digest()), size);
+        } catch (IOException e) {
+            logger.log(TreeLogger.ERROR, "Unable to read " + filename, e);
+            throw new UnableToCompleteException();
+        } finally {
+            try {
+                in.close();
+            } catch (IOException e) {
+                // Ignored
+            }
+        }
+    }
+
+    private static MessageDigest createDigest(TreeLogger logger)
+            throws UnableToCompleteException {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            logger.log(TreeLogger.ERROR, "SHA-1 digest is not available", e);
+            throw new UnableToCompleteException();
+        }
+    }
+
+    private static byte[] getBytes(String string) {
+        try {
+            return string.getBytes("UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static final char[] BASE64 = ("ABCDEFGHIJKLMNOPQRSTUVWXYZ"
+            + "abcdefghijklmnopqrstuvwxyz0123456789+/").toCharArray();
+
+    static String toBase64(byte[] bytes) {
+        StringBuilder sb = new StringBuilder((bytes.length + 2) / 3 * 4);
+        for (int i = 0; i < bytes.length; i += 3) {
+            int n = (bytes[i] & 0xff) << 16;
+            if (i + 1 < bytes.length) {
+                n |= (bytes[i + 1] & 0xff) << 8;
+            }
+            if (i + 2 < bytes.length) {
+                n |= bytes[i + 2] & 0xff;
+            }
+            sb.append(BASE64[n >> 18 & 0x3f]);
+            sb.append(BASE64[n >> 12 & 0x3f]);
+            sb.append(i + 1 < bytes.length ? BASE64[n >> 6 & 0x3f] : '=');
+            sb.append(i + 2 < bytes.length ? BASE64[n & 0x3f] : '=');
+        }
+        return sb.toString();
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            sb.append(Character.forDigit((b >> 4) & 0xf, 16));
+            sb.append(Character.forDigit(b & 0xf, 16));
+        }
+        return sb.toString();
+    }
+
 }
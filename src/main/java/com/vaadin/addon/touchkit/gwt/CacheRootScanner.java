@@ -0,0 +1,176 @@
+package com.vaadin.addon.touchkit.gwt;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.google.gwt.core.ext.TreeLogger;
+import com.google.gwt.core.ext.UnableToCompleteException;
+
+/**
+ * Lists the files below the additional cache roots of the cache manifest
+ * linker. Directories are listed and their children told apart in parallel,
+ * one tree level at a time, and the listing of each root is kept for the
+ * lifetime of the JVM. A listing is reused as long as none of its directories
+ * has been modified, so that recompiling in the same JVM does not walk big
+ * theme directories again.
+ */
+class CacheRootScanner {
+
+    private static final int THREADS = Runtime.getRuntime()
+            .availableProcessors();
+
+    private static final ConcurrentMap<String, Listing> listings = new ConcurrentHashMap<String, Listing>();
+
+    private CacheRootScanner() {
+    }
+
+    private static class Listing {
+        private final Map<File, Long> directories;
+        private final SortedMap<String, File> files;
+
+        private Listing(Map<File, Long> directories,
+                SortedMap<String, File> files) {
+            this.directories = directories;
+            this.files = files;
+        }
+
+        private boolean isUpToDate() {
+            for (Entry<File, Long> e : directories.entrySet()) {
+                if (e.getKey().lastModified() != e.getValue()) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    private static class Directory {
+        private final File file;
+        private final String relativePath;
+
+        private Directory(File file, String relativePath) {
+            this.file = file;
+            this.relativePath = relativePath;
+        }
+
+        private String resolve(String name) {
+            return relativePath.length() == 0 ? name : relativePath + "/"
+                    + name;
+        }
+    }
+
+    /**
+     * The children of a directory, split into files and subdirectories.
+     */
+    private static class Children {
+        private final List<File> files = new ArrayList<File>();
+        private final List<File> directories = new ArrayList<File>();
+    }
+
+    /**
+     * Lists the files below a root directory.
+     * 
+     * @return the files by their path relative to the root, "/" separated;
+     *         empty if the root is not a directory
+     */
+    static SortedMap<String, File> list(TreeLogger logger, File root)
+            throws UnableToCompleteException {
+        String key = root.getAbsolutePath();
+        Listing listing = listings.get(key);
+        if (listing == null || !listing.isUpToDate()) {
+            listing = scan(logger, root);
+            listings.put(key, listing);
+        } else {
+            logger.log(TreeLogger.DEBUG, "Reusing the listing of " + root);
+        }
+        return listing.files;
+    }
+
+    private static Listing scan(TreeLogger logger, File root)
+            throws UnableToCompleteException {
+        Map<File, Long> directories = new HashMap<File, Long>();
+        SortedMap<String, File> files = new TreeMap<String, File>();
+        if (!root.isDirectory()) {
+            return new Listing(directories, files);
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            List<Directory> level = Collections.singletonList(new Directory(
+                    root, ""));
+            while (!level.isEmpty()) {
+                List<Callable<Children>> tasks = new ArrayList<Callable<Children>>();
+                for (final Directory directory : level) {
+                    // Read the time before listing, a concurrent change then
+                    // invalidates the listing in the next build
+                    directories.put(directory.file,
+                            directory.file.lastModified());
+                    tasks.add(new Callable<Children>() {
+                        @Override
+                        public Children call() {
+                            File[] list = directory.file.listFiles();
+                            if (list == null) {
+                                return null;
+                            }
+                            // Stat the children here too, there are many
+                            // more of them than directories
+                            Children children = new Children();
+                            for (File child : list) {
+                                if (child.isDirectory()) {
+                                    children.directories.add(child);
+                                } else {
+                                    children.files.add(child);
+                                }
+                            }
+                            return children;
+                        }
+                    });
+                }
+
+                List<Future<Children>> results = executor.invokeAll(tasks);
+                List<Directory> nextLevel = new ArrayList<Directory>();
+                for (int i = 0; i < level.size(); i++) {
+                    Children children = results.get(i).get();
+                    if (children == null) {
+                        continue;
+                    }
+                    Directory directory = level.get(i);
+                    for (File child : children.directories) {
+                        nextLevel.add(new Directory(child, directory
+                                .resolve(child.getName())));
+                    }
+                    for (File child : children.files) {
+                        files.put(directory.resolve(child.getName()), child);
+                    }
+                }
+                level = nextLevel;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            logger.log(TreeLogger.ERROR, "Interrupted while listing " + root,
+                    e);
+            throw new UnableToCompleteException();
+        } catch (ExecutionException e) {
+            logger.log(TreeLogger.ERROR, "Unable to list " + root,
+                    e.getCause());
+            throw new UnableToCompleteException();
+        } finally {
+            executor.shutdown();
+        }
+        return new Listing(directories, Collections.unmodifiableSortedMap(files));
+    }
+}
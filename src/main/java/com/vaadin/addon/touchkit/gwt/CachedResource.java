@@ -0,0 +1,54 @@
+package com.vaadin.addon.touchkit.gwt;
+
+import java.io.Serializable;
+
+/**
+ * A resource listed in a cache manifest, together with the digest and size of
+ * its content when they are known at link time.
+ */
+@SuppressWarnings("serial")
+class CachedResource implements Serializable {
+
+    private final String path;
+    private final String hash;
+    private final long size;
+
+    CachedResource(String path, String hash, long size) {
+        this.path = path;
+        this.hash = hash;
+        this.size = size;
+    }
+
+    /**
+     * @return the path of the resource relative to the manifest
+     */
+    public String getPath() {
+        return path;
+    }
+
+    /**
+     * @return the hexadecimal content digest, or null if the content is not
+     *         available at link time (e.g. the bootstrap page)
+     */
+    public String getHash() {
+        return hash;
+    }
+
+    /**
+     * @return the size of the content in bytes, or -1 if unknown
+     */
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * @return true if the given resource has the same path and content as this
+     *         one
+     */
+    public boolean isUnchanged(CachedResource previous) {
+        return previous != null
+                && path.equals(previous.path)
+                && (hash == null ? previous.hash == null : hash
+                        .equals(previous.hash));
+    }
+}
@@ -0,0 +1,87 @@
+package com.vaadin.addon.touchkit.gwt;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Build time optimizations for the PNG images of the additional cache roots.
+ * <p>
+ * PNG images are re-encoded, which is lossless, and the result is only kept
+ * when it is smaller than the original. JPEG and GIF images are left as they
+ * are, they cannot be re-encoded losslessly with the JDK encoders.
+ */
+class ImageOptimizer {
+
+    private ImageOptimizer() {
+    }
+
+    /**
+     * Re-encodes a PNG image.
+     * 
+     * @return the re-encoded image, or null if it is not smaller than the
+     *         original or the image cannot be read
+     */
+    static byte[] recompress(File png) throws IOException {
+        BufferedImage image = ImageIO.read(png);
+        if (image == null) {
+            return null;
+        }
+        byte[] bytes = encode(image);
+        return bytes.length < png.length() ? bytes : null;
+    }
+
+    /**
+     * Creates the 1x variant of a 2x PNG image by averaging each 2x2 block of
+     * pixels.
+     * 
+     * @return the 1x image, or null if the image cannot be read
+     */
+    static byte[] halve(File png) throws IOException {
+        BufferedImage image = ImageIO.read(png);
+        if (image == null) {
+            return null;
+        }
+        int width = Math.max(1, image.getWidth() / 2);
+        int height = Math.max(1, image.getHeight() / 2);
+        BufferedImage half = new BufferedImage(width, height,
+                BufferedImage.TYPE_INT_ARGB);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                half.setRGB(x, y, average(image, x * 2, y * 2));
+            }
+        }
+        return encode(half);
+    }
+
+    private static int average(BufferedImage image, int x0, int y0) {
+        long a = 0, r = 0, g = 0, b = 0;
+        int count = 0;
+        for (int y = y0; y < Math.min(y0 + 2, image.getHeight()); y++) {
+            for (int x = x0; x < Math.min(x0 + 2, image.getWidth()); x++) {
+                int argb = image.getRGB(x, y);
+                int alpha = argb >>> 24;
+                // Weight the colors by alpha so that transparent pixels don't
+                // darken the edges
+                a += alpha;
+                r += ((argb >> 16) & 0xff) * alpha;
+                g += ((argb >> 8) & 0xff) * alpha;
+                b += (argb & 0xff) * alpha;
+                count++;
+            }
+        }
+        if (a == 0) {
+            return 0;
+        }
+        return (int) ((a / count) << 24 | (r / a) << 16 | (g / a) << 8 | (b / a));
+    }
+
+    private static byte[] encode(BufferedImage image) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ImageIO.write(image, "png", bytes);
+        return bytes.toByteArray();
+    }
+}
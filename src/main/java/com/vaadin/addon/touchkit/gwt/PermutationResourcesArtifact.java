@@ -0,0 +1,62 @@
+package com.vaadin.addon.touchkit.gwt;
+
+import java.util.SortedMap;
+import java.util.SortedSet;
+
+import com.google.gwt.core.ext.linker.Artifact;
+import com.google.gwt.core.ext.linker.Transferable;
+
+/**
+ * Carries the cached resources of one permutation from the shard where it was
+ * linked to the final link, where the manifests are generated. Using an
+ * artifact instead of shared state lets the shards be linked in parallel, in
+ * any order and in any JVM.
+ */
+@Transferable
+@SuppressWarnings("serial")
+class PermutationResourcesArtifact extends
+        Artifact<PermutationResourcesArtifact> {
+
+    private final int permutationId;
+    private final SortedSet<String> userAgents;
+    private final SortedMap<String, CachedResource> resources;
+
+    PermutationResourcesArtifact(int permutationId,
+            SortedSet<String> userAgents,
+            SortedMap<String, CachedResource> resources) {
+        super(CacheManifestLinker.class);
+        this.permutationId = permutationId;
+        this.userAgents = userAgents;
+        this.resources = resources;
+    }
+
+    /**
+     * @return the user.agent values of the permutation
+     */
+    public SortedSet<String> getUserAgents() {
+        return userAgents;
+    }
+
+    /**
+     * @return the cached resources emitted by the permutation, by path
+     */
+    public SortedMap<String, CachedResource> getResources() {
+        return resources;
+    }
+
+    @Override
+    public int hashCode() {
+        return permutationId;
+    }
+
+    @Override
+    protected int compareToComparableArtifact(PermutationResourcesArtifact o) {
+        return permutationId < o.permutationId ? -1
+                : (permutationId == o.permutationId ? 0 : 1);
+    }
+
+    @Override
+    protected Class<PermutationResourcesArtifact> getComparableArtifactType() {
+        return PermutationResourcesArtifact.class;
+    }
+}
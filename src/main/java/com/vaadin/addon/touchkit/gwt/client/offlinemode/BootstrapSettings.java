@@ -0,0 +1,46 @@
+package com.vaadin.addon.touchkit.gwt.client.offlinemode;
+
+/**
+ * Settings written inline to the bootstrap page by the server, so they are
+ * available synchronously when the widgetset starts, before the first
+ * response from the server.
+ */
+public class BootstrapSettings {
+
+    /**
+     * Name of the window variable holding the settings object.
+     */
+    public static final String SETTINGS_VARIABLE = "touchkitSettings";
+
+    /**
+     * Seconds to wait for a response before going offline.
+     */
+    public static final String OFFLINE_MODE_TIMEOUT = "offlineModeTimeout";
+
+    private BootstrapSettings() {
+    }
+
+    /**
+     * @return the value of the setting, or null if it was not set
+     */
+    public static native String get(String name) /*-{
+        var settings = $wnd[@com.vaadin.addon.touchkit.gwt.client.offlinemode.BootstrapSettings::SETTINGS_VARIABLE];
+        return settings && settings[name] != null ? "" + settings[name] : null;
+    }-*/;
+
+    /**
+     * @return the value of the setting, or the default value if it was not set
+     *         or is not a number
+     */
+    public static int getInt(String name, int defaultValue) {
+        String value = get(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+}
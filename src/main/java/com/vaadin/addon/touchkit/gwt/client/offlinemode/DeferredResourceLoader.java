@@ -0,0 +1,93 @@
+package com.vaadin.addon.touchkit.gwt.client.offlinemode;
+
+import com.google.gwt.dom.client.Document;
+import com.google.gwt.http.client.Request;
+import com.google.gwt.http.client.RequestBuilder;
+import com.google.gwt.http.client.RequestCallback;
+import com.google.gwt.http.client.RequestException;
+import com.google.gwt.http.client.Response;
+import com.vaadin.client.VConsole;
+
+/**
+ * Prefetches the resources that the cache manifest linker left out of the
+ * manifest, so they don't delay the first install but are still available
+ * when needed. The list of resources is given by the bootstrap page in the
+ * {@value #DEFERRED_RESOURCES_ATTRIBUTE} attribute of the html element.
+ * <p>
+ * Resources are fetched one at a time, so that the online application always
+ * gets the connection first.
+ */
+public class DeferredResourceLoader {
+
+    public static final String DEFERRED_RESOURCES_ATTRIBUTE = "data-touchkit-deferred";
+
+    private static boolean started = false;
+
+    private DeferredResourceLoader() {
+    }
+
+    /**
+     * Starts prefetching the deferred resources, unless already started.
+     */
+    public static void start() {
+        if (started) {
+            return;
+        }
+        started = true;
+        String listUrl = Document.get().getDocumentElement()
+                .getAttribute(DEFERRED_RESOURCES_ATTRIBUTE);
+        if (listUrl == null || listUrl.isEmpty()) {
+            return;
+        }
+        final String baseUrl = listUrl.substring(0,
+                listUrl.lastIndexOf('/') + 1);
+        get(listUrl, new RequestCallback() {
+            @Override
+            public void onResponseReceived(Request request, Response response) {
+                if (response.getStatusCode() == Response.SC_OK) {
+                    prefetch(baseUrl, response.getText().split("\n"), 0);
+                }
+            }
+
+            @Override
+            public void onError(Request request, Throwable exception) {
+                VConsole.log("Unable to load deferred resources: "
+                        + exception.getMessage());
+            }
+        });
+    }
+
+    private static void prefetch(final String baseUrl, final String[] paths,
+            final int index) {
+        if (index >= paths.length) {
+            VConsole.log("Deferred resources prefetched.");
+            return;
+        }
+        if (paths[index].isEmpty()) {
+            prefetch(baseUrl, paths, index + 1);
+            return;
+        }
+        get(baseUrl + paths[index], new RequestCallback() {
+            @Override
+            public void onResponseReceived(Request request, Response response) {
+                prefetch(baseUrl, paths, index + 1);
+            }
+
+            @Override
+            public void onError(Request request, Throwable exception) {
+                // Most likely offline, the rest would fail too
+                VConsole.log("Stopped prefetching deferred resources: "
+                        + exception.getMessage());
+            }
+        });
+    }
+
+    private static void get(String url, RequestCallback callback) {
+        try {
+            new RequestBuilder(RequestBuilder.GET, url).sendRequest(null,
+                    callback);
+        } catch (RequestException e) {
+            callback.onError(null, e);
+        }
+    }
+}
@@ -6,6 +6,7 @@ import com.google.gwt.core.client.Scheduler;
 import com.google.gwt.core.client.Scheduler.RepeatingCommand;
 import com.google.gwt.event.shared.EventBus;
 import com.google.gwt.event.shared.HasHandlers;
+import com.google.gwt.user.client.Timer;
 import com.vaadin.addon.touchkit.gwt.client.offlinemode.OfflineMode.ActivationEvent;
 import com.vaadin.addon.touchkit.gwt.client.offlinemode.OfflineMode.OfflineEvent;
 import com.vaadin.addon.touchkit.gwt.client.offlinemode.OfflineMode.OnlineEvent;
@@ -42,6 +43,15 @@ public class OfflineModeEntrypoint implements EntryPoint, CommunicationHandler,
     private HasHandlers eventBus = null;
     private ApplicationConnection connection = null;
 
+    // Tracks the requests made before the OfflineModeConnector has received
+    // its state, using the timeout given in the bootstrap page.
+    private Timer startupTimeoutTracker = new Timer() {
+        @Override
+        public void run() {
+            goOffline(OfflineMode.BAD_RESPONSE);
+        }
+    };
+
     public static boolean isNetworkOnline() {
         return online;
     }
@@ -141,6 +151,7 @@ public class OfflineModeEntrypoint implements EntryPoint, CommunicationHandler,
                 }
                 connection.setApplicationRunning(true);
                 eventBus.fireEvent(new OnlineEvent());
+                DeferredResourceLoader.start();
             } else {
                 lastOfflineEvent = OfflineMode.ONLINE_APP_NOT_STARTED;
                 offlineModeApp.activate(lastOfflineEvent);
@@ -202,10 +213,16 @@ public class OfflineModeEntrypoint implements EntryPoint, CommunicationHandler,
 
     @Override
     public void onRequestStarting(RequestStartingEvent e) {
+        int timeout = BootstrapSettings.getInt(
+                BootstrapSettings.OFFLINE_MODE_TIMEOUT, -1);
+        if (offlineModeConn == null && timeout >= 0) {
+            startupTimeoutTracker.schedule(timeout * 1000);
+        }
     }
 
     @Override
     public void onResponseHandlingStarted(ResponseHandlingStartedEvent e) {
+        startupTimeoutTracker.cancel();
     }
 
     @Override
@@ -296,8 +313,12 @@ public class OfflineModeEntrypoint implements EntryPoint, CommunicationHandler,
 
         // Listen to Cordova specific online/off-line stuff
         // this needs cordova.js to be loaded in the current page.
-        // It has to be done overriding ApplicationCacheSettings.
-        if ($wnd.navigator.network && $wnd.navigator.network.connection && $wnd.Connection) {
+        // ApplicationCacheSettings loads it asynchronously when the page is
+        // in a Cordova container, so it might only be ready later.
+        function listenCordova() {
+          if (hasCordovaEvents || !($wnd.navigator.network && $wnd.navigator.network.connection && $wnd.Connection)) {
+            return;
+          }
           hasCordovaEvents = true;
           $doc.addEventListener("offline", offline, false);
           $doc.addEventListener("online", online, false);
@@ -306,6 +327,8 @@ public class OfflineModeEntrypoint implements EntryPoint, CommunicationHandler,
             offline();
           }
         }
+        listenCordova();
+        $doc.addEventListener("deviceready", listenCordova, false);
 
         // Use postMessage approach to go online-offline, useful when the
         // application is embedded in a Cordova iframe, so as it
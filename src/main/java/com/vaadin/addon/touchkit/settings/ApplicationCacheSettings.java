@@ -1,5 +1,16 @@
 package com.vaadin.addon.touchkit.settings;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -8,17 +19,70 @@ import org.jsoup.nodes.Document;
 import org.jsoup.nodes.Element;
 
 import com.vaadin.addon.touchkit.extensions.LocalStorage;
+import com.vaadin.addon.touchkit.gwt.client.offlinemode.BootstrapSettings;
+import com.vaadin.addon.touchkit.gwt.client.offlinemode.DeferredResourceLoader;
 import com.vaadin.addon.touchkit.gwt.client.offlinemode.CacheManifestStatusIndicator;
 import com.vaadin.server.BootstrapFragmentResponse;
 import com.vaadin.server.BootstrapListener;
 import com.vaadin.server.BootstrapPageResponse;
+import com.vaadin.server.VaadinRequest;
+import com.vaadin.server.VaadinService;
+import com.vaadin.server.VaadinServletService;
+import com.vaadin.server.WrappedSession;
+import com.vaadin.ui.UI;
 
 /**
  * This class is used to control HTML5 application cache settings.
  */
 public class ApplicationCacheSettings implements BootstrapListener {
 
+    private static final String SERVICE_WORKER_REGISTRATION = "if ('serviceWorker' in navigator) {"
+            + "navigator.serviceWorker.register('%s', {scope: './'});" + "}";
+
+    private static final String APP_CONFIG_END = "\n});";
+
+    private static final String DEFAULT_MANIFEST = "safari.manifest";
+
+    private static final int DEFAULT_UPDATE_CHECK_INTERVAL = 1800;
+
+    private static final double DEFAULT_UPDATE_CHECK_JITTER = 0.1;
+
+    /**
+     * How often a cached bootstrap rewrite is checked against the files of the
+     * widgetset, which change when the widgetset is recompiled in place.
+     */
+    static final long CHECK_INTERVAL_MILLIS = 5000;
+
+    private static final String CORDOVA_SCRIPT = "file:///android_asset/www/cordova.js";
+
+    /**
+     * Request parameter a Cordova wrapper adds to the URL it loads, e.g.
+     * "?cordova".
+     */
+    public static final String CORDOVA_PARAMETER = "cordova";
+
+    private static final String CORDOVA_SESSION_ATTRIBUTE = ApplicationCacheSettings.class
+            .getName() + ".cordova";
+
+    private static final Pattern MSIE_VERSION = Pattern.compile("msie (\\d+)");
+
+    private final ConcurrentMap<String, BootstrapRewrite> bootstrapRewrites = new ConcurrentHashMap<String, BootstrapRewrite>();
+
     private boolean cacheManifestEnabled = true;
+    private boolean serviceWorkerEnabled = false;
+
+    // The settings written to the bootstrap page, guarded by this
+    private String updateNowMessage;
+    private Integer updateCheckInterval;
+    private double updateCheckJitter = DEFAULT_UPDATE_CHECK_JITTER;
+    private Integer offlineModeTimeout;
+
+    /**
+     * The inline script applying the settings above, null if it needs to be
+     * generated again. Only written while holding the lock of this, so that a
+     * script built from outdated settings is never stored.
+     */
+    private volatile String settingsScript;
 
     @Override
     public void modifyBootstrapFragment(BootstrapFragmentResponse response) {
@@ -41,40 +105,515 @@ public class ApplicationCacheSettings implements BootstrapListener {
             // How to get context??
 
             Element scriptTag = document.getElementsByTag("script").last();
-            String script = scriptTag.html();
+            DataNode scriptData = null;
+            if (scriptTag.childNodes().size() == 1
+                    && scriptTag.childNode(0) instanceof DataNode) {
+                scriptData = (DataNode) scriptTag.childNode(0);
+            }
+            String script = scriptData != null ? scriptData.getWholeData()
+                    : scriptTag.html();
             String vaadinDir = getAppConfigParameter("vaadinDir", script);
             String widgetset = getAppConfigParameter("widgetset", script);
-            String widgetsetUrl = String.format(
-                    "%swidgetsets/%s/%s.nocache.js", vaadinDir, widgetset,
-                    widgetset);
+            String manifest = generateManifestFileName(response);
+            String serviceWorker = isServiceWorkerEnabled() ? generateServiceWorkerFileName(response)
+                    : null;
+
+            String theme = getAppConfigParameter("theme", script);
+
+            String key = vaadinDir + "\n" + widgetset + "\n" + manifest + "\n"
+                    + serviceWorker + "\n" + theme;
+            BootstrapRewrite rewrite = bootstrapRewrites.get(key);
+            if (rewrite == null || !rewrite.isUpToDate(response.getRequest())) {
+                rewrite = new BootstrapRewrite(response.getRequest(),
+                        vaadinDir, widgetset, manifest, serviceWorker, theme);
+                bootstrapRewrites.put(key, rewrite);
+            }
+
+            script = replaceAll(script, APP_CONFIG_END,
+                    rewrite.appConfigEnd);
+            if (scriptData != null) {
+                scriptData.setWholeData(script);
+            } else {
+                scriptTag.html("");
+                scriptTag.appendChild(new DataNode(script, scriptTag
+                        .baseUri()));
+            }
+
+            Element html = document.getElementsByTag("html").first();
+            Element head = document.head();
+            if (isServiceWorkerEnabled()) {
+                // Register the service worker generated by the linker
+                // instead of using the application cache
+                head.appendElement("script").appendChild(
+                        new DataNode(rewrite.serviceWorkerRegistration, head
+                                .baseUri()));
+            } else {
+                // Add cache manifest attribute to html tag
+                html.attr("manifest", rewrite.manifest);
+            }
+
+            // Resources left out of the manifest are prefetched by the
+            // client once the application is online
+            if (rewrite.deferredResources != null) {
+                html.attr(DeferredResourceLoader.DEFERRED_RESOURCES_ATTRIBUTE,
+                        rewrite.deferredResources);
+            }
+
+            // Let the browser fetch the widgetset and the theme in parallel
+            // instead of discovering them one after another
+            for (String[] hint : rewrite.resourceHints) {
+                Element link = head.appendElement("link").attr("rel", hint[0])
+                        .attr("href", hint[1]);
+                if (hint[2] != null) {
+                    link.attr("as", hint[2]);
+                }
+            }
+
+            String settings = getSettingsScript();
+            if (settings != null) {
+                // Before any other script, so the settings are there when the
+                // widgetset starts
+                head.prependElement("script").appendChild(
+                        new DataNode(settings, head.baseUri()));
+            }
+
+            if (isCordovaContainer(response.getRequest())) {
+                head.appendElement("script").attr("src", CORDOVA_SCRIPT)
+                        .attr("async", "async");
+            }
+
+        }
+    }
+
+    /**
+     * Checks whether the page is loaded in a Cordova container, so that the
+     * Cordova bridge script is available. A container is detected by the
+     * {@value #CORDOVA_PARAMETER} request parameter, which is remembered for
+     * the rest of the session, or by a "cordova" or "phonegap" marker in the
+     * User-Agent header.
+     * 
+     * @param request
+     *            the bootstrap request
+     * @return true if the Cordova bridge should be loaded
+     */
+    protected boolean isCordovaContainer(VaadinRequest request) {
+        WrappedSession session = request.getWrappedSession(false);
+        String parameter = request.getParameter(CORDOVA_PARAMETER);
+        if (parameter != null) {
+            boolean cordova = !"false".equals(parameter);
+            if (session != null) {
+                session.setAttribute(CORDOVA_SESSION_ATTRIBUTE, cordova);
+            }
+            return cordova;
+        }
+        if (session != null
+                && Boolean.TRUE.equals(session
+                        .getAttribute(CORDOVA_SESSION_ATTRIBUTE))) {
+            return true;
+        }
+        String userAgent = request.getHeader("User-Agent");
+        if (userAgent == null) {
+            return false;
+        }
+        userAgent = userAgent.toLowerCase();
+        return userAgent.contains("cordova") || userAgent.contains("phonegap");
+    }
+
+    /**
+     * The parts of the bootstrap page that only depend on the widgetset and
+     * the manifest, computed once and reused for all page loads until the
+     * files emitted by the linker change.
+     */
+    private class BootstrapRewrite {
+        private final String widgetset;
+        private final String manifestFile;
+        private final String preloadFile;
+        private final long lastModified;
+        private volatile long checked;
+        private final String appConfigEnd;
+        private final String manifest;
+        private final String serviceWorkerRegistration;
+        private final String deferredResources;
+        /**
+         * The rel, href and as attributes of the resource hints.
+         */
+        private final List<String[]> resourceHints = new ArrayList<String[]>();
+
+        private BootstrapRewrite(VaadinRequest request, String vaadinDir,
+                String widgetset, String manifest, String serviceWorker,
+                String theme) {
+            this.widgetset = widgetset;
+            appConfigEnd = String.format(
+                    ",\n    \"widgetsetUrl\": \"%swidgetsets/%s/%s.nocache.js\"\n});",
+                    vaadinDir, widgetset, widgetset);
 
-            scriptTag.html("");
-            scriptTag.appendChild(new DataNode(script.replace("\n});", String
-                    .format(",\n    \"widgetsetUrl\": \"%s\"\n});",
-                            widgetsetUrl)), scriptTag.baseUri()));
+            String widgetsetDir = vaadinDir + "widgetsets/" + widgetset + "/";
+            if (!isWidgetsetResourceAvailable(request, widgetset, manifest)) {
+                manifest = DEFAULT_MANIFEST;
+            }
+            manifestFile = manifest;
+            preloadFile = getPermutationFileName(manifest, ".preload");
+            // Read before the files, a concurrent change is then seen by the
+            // next check
+            lastModified = getLastModified(request);
+            checked = System.currentTimeMillis();
+            this.manifest = widgetsetDir + manifest;
+            if (serviceWorker == null
+                    || !isWidgetsetResourceAvailable(request, widgetset,
+                            serviceWorker)) {
+                serviceWorker = getPermutationFileName(manifest, ".sw.js");
+            }
+            serviceWorkerRegistration = String.format(
+                    SERVICE_WORKER_REGISTRATION, widgetsetDir + serviceWorker);
 
-            // Add cache manifest attribute to html tag
-            document.getElementsByTag("html").attr(
-                    "manifest",
-                    vaadinDir + "widgetsets/" + widgetset + "/"
-                            + generateManifestFileName(response));
-            
-            document.getElementsByTag("head").append("<script src='file:///android_asset/www/cordova.js'> </script>");
+            String deferred = getPermutationFileName(manifest, ".deferred");
+            deferredResources = isWidgetsetResourceAvailable(request,
+                    widgetset, deferred) ? widgetsetDir + deferred : null;
 
+            String preload = readWidgetsetResource(request, widgetset,
+                    preloadFile);
+            if (preload != null) {
+                for (String line : preload.split("\n")) {
+                    String[] columns = line.split("\t");
+                    if (columns.length != 2) {
+                        continue;
+                    }
+                    String href = widgetsetDir + columns[1];
+                    if ("script".equals(columns[0])) {
+                        resourceHints.add(new String[] { "preload", href,
+                                "script" });
+                    } else if ("style".equals(columns[0])
+                            && columns[1].contains("/themes/" + theme + "/")) {
+                        resourceHints.add(new String[] { "preload", href,
+                                "style" });
+                    } else if ("document".equals(columns[0])) {
+                        resourceHints.add(new String[] { "prefetch", href,
+                                null });
+                    }
+                }
+            }
+        }
+
+        /**
+         * @return false if the manifest or the preload list has been emitted
+         *         again since this rewrite was computed, checked at most once
+         *         per {@link #CHECK_INTERVAL_MILLIS}
+         */
+        private boolean isUpToDate(VaadinRequest request) {
+            long now = System.currentTimeMillis();
+            if (now - checked < CHECK_INTERVAL_MILLIS) {
+                return true;
+            }
+            if (getLastModified(request) != lastModified) {
+                return false;
+            }
+            checked = now;
+            return true;
+        }
+
+        private long getLastModified(VaadinRequest request) {
+            return Math.max(
+                    getWidgetsetResourceLastModified(request, widgetset,
+                            manifestFile),
+                    getWidgetsetResourceLastModified(request, widgetset,
+                            preloadFile));
         }
     }
 
     /**
-     * Generates the manifest file name for the given page response
+     * Creates the script exposing the settings to the client. The update
+     * settings are stored in the local storage where the client has always
+     * read them from.
+     * 
+     * @return the script, or null if there is nothing to set
+     */
+    private String getSettingsScript() {
+        String script = settingsScript;
+        if (script != null) {
+            return script;
+        }
+        synchronized (this) {
+            return buildSettingsScript();
+        }
+    }
+
+    /**
+     * Called holding the lock of this, so that the settings can't change while
+     * the script is built.
+     */
+    private String buildSettingsScript() {
+        String script = settingsScript;
+        if (script == null
+                && (updateNowMessage != null || updateCheckInterval != null
+                        || updateCheckJitter > 0 || offlineModeTimeout != null)) {
+            StringBuilder sb = new StringBuilder();
+            sb.append("window.").append(BootstrapSettings.SETTINGS_VARIABLE)
+                    .append(" = {");
+            if (offlineModeTimeout != null) {
+                sb.append(toJsString(BootstrapSettings.OFFLINE_MODE_TIMEOUT))
+                        .append(": ").append(offlineModeTimeout);
+            }
+            sb.append("};\ntry {\n");
+            if (updateNowMessage != null) {
+                appendLocalStorageItem(sb,
+                        CacheManifestStatusIndicator.UPDATE_NOW_MSG_KEY,
+                        toJsString(updateNowMessage));
+            }
+            int interval = updateCheckInterval != null ? updateCheckInterval
+                    : DEFAULT_UPDATE_CHECK_INTERVAL;
+            if (updateCheckJitter > 0) {
+                // Each page load picks its own interval, so that devices
+                // don't all check for updates at the same time
+                appendLocalStorageItem(sb,
+                        CacheManifestStatusIndicator.UPDATE_CHECK_INTERVAL_KEY,
+                        "String(Math.round(" + interval + " * (1 + "
+                                + updateCheckJitter
+                                + " * (2 * Math.random() - 1))))");
+            } else if (updateCheckInterval != null) {
+                appendLocalStorageItem(sb,
+                        CacheManifestStatusIndicator.UPDATE_CHECK_INTERVAL_KEY,
+                        toJsString(String.valueOf(interval)));
+            }
+            sb.append("} catch (e) {\n}\n");
+            script = sb.toString();
+            settingsScript = script;
+        }
+        return script;
+    }
+
+    private static void appendLocalStorageItem(StringBuilder sb, String key,
+            String valueExpression) {
+        sb.append("localStorage.setItem(").append(toJsString(key))
+                .append(", ").append(valueExpression).append(");\n");
+    }
+
+    /**
+     * Quotes a string for an inline script, without allowing it to end the
+     * script element.
+     */
+    private static String toJsString(String string) {
+        StringBuilder sb = new StringBuilder(string.length() + 2);
+        sb.append('"');
+        for (int i = 0; i < string.length(); i++) {
+            char c = string.charAt(i);
+            switch (c) {
+            case '"':
+            case '\\':
+                sb.append('\\').append(c);
+                break;
+            case '\n':
+                sb.append("\\n");
+                break;
+            case '\r':
+                sb.append("\\r");
+                break;
+            case '<':
+                sb.append("\\u003c");
+                break;
+            default:
+                sb.append(c);
+            }
+        }
+        return sb.append('"').toString();
+    }
+
+    /**
+     * Replaces all occurrences of a literal string, without the regular
+     * expression {@link String#replace(CharSequence, CharSequence)} uses.
+     */
+    private static String replaceAll(String string, String target,
+            String replacement) {
+        int index = string.indexOf(target);
+        if (index < 0) {
+            return string;
+        }
+        StringBuilder sb = new StringBuilder(string.length()
+                + replacement.length());
+        int start = 0;
+        do {
+            sb.append(string, start, index).append(replacement);
+            start = index + target.length();
+            index = string.indexOf(target, start);
+        } while (index >= 0);
+        return sb.append(string, start, string.length()).toString();
+    }
+
+    /**
+     * Generates the manifest file name for the given page response. The
+     * linker emits one manifest per user.agent permutation, so the one
+     * matching the browser is selected. If the widgetset has no such
+     * permutation, "safari.manifest" is used instead.
      * 
      * @param response
      *            Page response where the manifest will be added.
      * @return The manifest file name, eg. "safari.manifest".
      */
     protected String generateManifestFileName(BootstrapPageResponse response) {
-        // Default implementation of TouchKit only supports webkit (safari)
-        // browsers for now.
-        return "safari.manifest";
+        return getUserAgentPermutation(response.getRequest().getHeader(
+                "User-Agent"))
+                + ".manifest";
+    }
+
+    /**
+     * Generates the service worker file name for the given page response. The
+     * service workers are emitted by the linker next to the manifests. If the
+     * widgetset has no such service worker, the one next to the selected
+     * manifest is used instead.
+     * 
+     * @param response
+     *            Page response where the service worker will be registered.
+     * @return The service worker file name, eg. "safari.sw.js".
+     */
+    protected String generateServiceWorkerFileName(
+            BootstrapPageResponse response) {
+        return getPermutationFileName(generateManifestFileName(response),
+                ".sw.js");
+    }
+
+    /**
+     * Resolves the GWT user.agent permutation for a browser, the same way as
+     * the property provider of the GWT UserAgent module does. The document
+     * mode of IE is not known on the server, so the browser version is used
+     * instead.
+     * 
+     * @param userAgent
+     *            the User-Agent header, may be null
+     * @return the user.agent property value, eg. "safari"
+     */
+    protected String getUserAgentPermutation(String userAgent) {
+        if (userAgent == null) {
+            return "safari";
+        }
+        // A few substring checks, cheaper than caching them per header
+        return resolveUserAgentPermutation(userAgent.toLowerCase());
+    }
+
+    private static String resolveUserAgentPermutation(String ua) {
+        if (ua.contains("opera")) {
+            return "opera";
+        }
+        if (ua.contains("webkit")) {
+            return "safari";
+        }
+        Matcher msie = MSIE_VERSION.matcher(ua);
+        if (msie.find()) {
+            int version = Integer.parseInt(msie.group(1));
+            if (version >= 10) {
+                return "ie10";
+            }
+            if (version >= 9) {
+                return "ie9";
+            }
+            return "ie8";
+        }
+        if (ua.contains("gecko")) {
+            return "gecko1_8";
+        }
+        return "safari";
+    }
+
+    /**
+     * Finds a file of the widgetset, served either by the servlet context or
+     * from the class path.
+     * 
+     * @return the URL of the file, or null if it is not available
+     */
+    private static URL getWidgetsetResource(VaadinRequest request,
+            String widgetset, String filename) {
+        String path = "/VAADIN/widgetsets/" + widgetset + "/" + filename;
+        VaadinService service = request.getService();
+        URL url = null;
+        if (service instanceof VaadinServletService) {
+            try {
+                url = ((VaadinServletService) service).getServlet()
+                        .getServletContext().getResource(path);
+            } catch (MalformedURLException e) {
+                // Not available
+            }
+        }
+        if (url == null && service != null) {
+            url = service.getClassLoader().getResource(path.substring(1));
+        }
+        return url;
+    }
+
+    /**
+     * Checks whether the widgetset contains the given file, e.g. a manifest
+     * for the permutation. Outside servlets the file is assumed to exist.
+     */
+    private static boolean isWidgetsetResourceAvailable(
+            VaadinRequest request, String widgetset, String filename) {
+        return !(request.getService() instanceof VaadinServletService)
+                || getWidgetsetResource(request, widgetset, filename) != null;
+    }
+
+    /**
+     * @return the modification time of a file of the widgetset, or 0 if it is
+     *         not available or not known
+     */
+    private static long getWidgetsetResourceLastModified(
+            VaadinRequest request, String widgetset, String filename) {
+        URL url = getWidgetsetResource(request, widgetset, filename);
+        if (url == null) {
+            return 0;
+        }
+        try {
+            URLConnection connection = url.openConnection();
+            try {
+                return connection.getLastModified();
+            } finally {
+                // Only the headers were needed
+                connection.getInputStream().close();
+            }
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Reads a text file emitted by the linker in the widgetset.
+     * 
+     * @return the contents of the file, or null if it is not available
+     */
+    private static String readWidgetsetResource(VaadinRequest request,
+            String widgetset, String filename) {
+        URL url = getWidgetsetResource(request, widgetset, filename);
+        if (url == null) {
+            return null;
+        }
+        InputStream in;
+        try {
+            in = url.openStream();
+        } catch (IOException e) {
+            return null;
+        }
+        try {
+            Reader reader = new InputStreamReader(in, "UTF-8");
+            StringBuilder sb = new StringBuilder();
+            char[] buffer = new char[4096];
+            int read;
+            while ((read = reader.read(buffer)) != -1) {
+                sb.append(buffer, 0, read);
+            }
+            return sb.toString();
+        } catch (IOException e) {
+            return null;
+        } finally {
+            try {
+                in.close();
+            } catch (IOException e) {
+                // Ignored
+            }
+        }
+    }
+
+    /**
+     * @return the name of a file emitted by the linker next to the given
+     *         manifest, eg. "safari.sw.js" for the ".sw.js" suffix.
+     */
+    private static String getPermutationFileName(String manifest,
+            String suffix) {
+        return manifest.substring(0, manifest.lastIndexOf('.')) + suffix;
     }
 
     /**
@@ -87,13 +626,19 @@ public class ApplicationCacheSettings implements BootstrapListener {
      *            initialization parameters.
      * @return the value of the parameter
      */
-    private String getAppConfigParameter(String parameter, String script) {
-        Matcher m = Pattern.compile(
-                String.format(".*\"%s\": \"(.*)\"", parameter)).matcher(script);
-        if (m.find()) {
-            return m.group(1);
+    private static String getAppConfigParameter(String parameter,
+            String script) {
+        String prefix = "\"" + parameter + "\": \"";
+        int start = script.indexOf(prefix);
+        if (start < 0) {
+            return null;
         }
-        return null;
+        start += prefix.length();
+        // The value ends at the last quote of the line
+        int lineEnd = script.indexOf('\n', start);
+        int end = script.lastIndexOf('"', lineEnd < 0 ? script.length() - 1
+                : lineEnd);
+        return end < start ? null : script.substring(start, end);
     }
 
     /**
@@ -114,33 +659,140 @@ public class ApplicationCacheSettings implements BootstrapListener {
         this.cacheManifestEnabled = cacheManifestEnabled;
     }
 
+    /**
+     * @return true if a service worker is registered instead of the cache
+     *         manifest.
+     */
+    public boolean isServiceWorkerEnabled() {
+        return serviceWorkerEnabled;
+    }
+
+    /**
+     * Register the service worker emitted by the cache manifest linker instead
+     * of using the cache manifest. The widgetset must be compiled with the
+     * <code>touchkit.manifestlinker.serviceWorker</code> configuration
+     * property set to true, and the service worker must be allowed to control
+     * the whole application (see the Service-Worker-Allowed header).
+     * 
+     * @param serviceWorkerEnabled
+     *            true to use a service worker.
+     */
+    public void setServiceWorkerEnabled(boolean serviceWorkerEnabled) {
+        this.serviceWorkerEnabled = serviceWorkerEnabled;
+    }
+
     /**
      * Specifies the message to show when an update to the application cache is
      * available. When a new version of the application cache has been loaded by
      * the client, this message is shown in a confirmation box. Answering 'OK'
      * in this box causes the application to refresh and use the new application
      * cache (== new version of the widget set).
+     * <p>
+     * The message is written to the bootstrap page. A running UI is only
+     * updated if the message changes.
+     * <p>
+     * The settings are shared by all the users of the servlet, so this changes
+     * the bootstrap page for every user, not only for the current UI.
      * 
      * @param message
      *            The new message. The default is
      *            "There are updates ready to be installed. Would you like to restart now?"
      */
     public void setUpdateNowMessage(String message) {
-        LocalStorage.get().put(CacheManifestStatusIndicator.UPDATE_NOW_MSG_KEY,
-                message);
+        boolean changed;
+        synchronized (this) {
+            changed = message == null ? updateNowMessage != null : !message
+                    .equals(updateNowMessage);
+            updateNowMessage = message;
+            settingsScript = null;
+        }
+        if (changed && message != null && UI.getCurrent() != null) {
+            LocalStorage.get().put(
+                    CacheManifestStatusIndicator.UPDATE_NOW_MSG_KEY, message);
+        }
     }
 
     /**
      * Specifies how often to check for and download updates to the application
      * cache (== widget set).
+     * <p>
+     * The interval is written to the bootstrap page. A running UI is only
+     * updated if the interval changes.
+     * <p>
+     * The settings are shared by all the users of the servlet, so this changes
+     * the bootstrap page for every user, not only for the current UI.
      * 
      * @param interval
      *            The interval in seconds. The default is 30 minutes (1800
      *            seconds).
      */
     public void setUpdateCheckInterval(int interval) {
-        LocalStorage.get().put(
-                CacheManifestStatusIndicator.UPDATE_CHECK_INTERVAL_KEY,
-                String.valueOf(interval));
+        boolean changed;
+        double jitter;
+        synchronized (this) {
+            changed = updateCheckInterval == null
+                    || updateCheckInterval != interval;
+            updateCheckInterval = interval;
+            jitter = updateCheckJitter;
+            settingsScript = null;
+        }
+        if (changed && UI.getCurrent() != null) {
+            LocalStorage.get().put(
+                    CacheManifestStatusIndicator.UPDATE_CHECK_INTERVAL_KEY,
+                    String.valueOf(Math.round(interval
+                            * (1 + jitter * (2 * Math.random() - 1)))));
+        }
+    }
+
+    /**
+     * Specifies how much the update check interval varies randomly between
+     * devices, so that they don't all check for updates at the same time
+     * after a new version has been deployed.
+     * <p>
+     * The settings are shared by all the users of the servlet, so this changes
+     * the bootstrap page for every user, not only for the current UI.
+     * 
+     * @param jitter
+     *            The maximum deviation from the interval as a fraction of it,
+     *            e.g. 0.1 for +-10%. The default is 0.1, 0 disables the
+     *            jitter.
+     */
+    public synchronized void setUpdateCheckJitter(double jitter) {
+        updateCheckJitter = jitter;
+        settingsScript = null;
+    }
+
+    /**
+     * @return the maximum deviation from the update check interval as a
+     *         fraction of it
+     */
+    public synchronized double getUpdateCheckJitter() {
+        return updateCheckJitter;
+    }
+
+    /**
+     * Specifies how long the client waits for the responses to the requests
+     * made while the application starts, before going offline. Once the
+     * application has started, the timeout of the OfflineMode extension is
+     * used instead.
+     * <p>
+     * The settings are shared by all the users of the servlet, so this changes
+     * the bootstrap page for every user, not only for the current UI.
+     * 
+     * @param timeout
+     *            The timeout in seconds, or null to not go offline before the
+     *            application has started.
+     */
+    public synchronized void setOfflineModeTimeout(Integer timeout) {
+        offlineModeTimeout = timeout;
+        settingsScript = null;
+    }
+
+    /**
+     * @return the offline mode timeout used while the application starts, in
+     *         seconds, or null if not set
+     */
+    public synchronized Integer getOfflineModeTimeout() {
+        return offlineModeTimeout;
     }
 }
@@ -1,10 +1,10 @@
 package com.vaadin.touchkit.demo;
 
-import com.vaadin.server.Page;
+import com.vaadin.server.ExternalResource;
 import com.vaadin.server.VaadinRequest;
-import com.vaadin.ui.Button;
 import com.vaadin.ui.HorizontalLayout;
 import com.vaadin.ui.Label;
+import com.vaadin.ui.Link;
 import com.vaadin.ui.UI;
 
 /**
@@ -20,17 +20,14 @@ public class DemoAppFallbackUI extends UI {
         layout.setSpacing(true);
         layout.setMargin(true);
 
-        Button button = new Button("Continue anyway.", new Button.ClickListener() {
-            @Override
-            public void buttonClick(Button.ClickEvent event) {
-                getSession().setAttribute("mobile", true);
-                Page.getCurrent().getJavaScript().execute("window.location.reload()");
-            }
-        });
-        button.addStyleName("link");
+        // The TouchKit UI uses another widgetset and theme, so it can't be
+        // shown in this page. Link straight to the URL that selects it
+        // instead of reloading this page through the server.
+        Link link = new Link("Continue anyway.", new ExternalResource("?"
+                + FallbackPageHandler.MOBILE));
 
         layout.addComponent(new Label("You seem to be using a desktop browser."));
-        layout.addComponent(button);
+        layout.addComponent(link);
 
         setContent(layout);
     }
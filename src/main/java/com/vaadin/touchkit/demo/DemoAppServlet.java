@@ -1,7 +1,11 @@
 package com.vaadin.touchkit.demo;
 
+import java.io.IOException;
+
 import javax.servlet.ServletException;
 import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 
 import com.vaadin.addon.touchkit.server.TouchKitServlet;
 import com.vaadin.server.ServiceException;
@@ -13,10 +17,34 @@ import com.vaadin.server.SessionInitListener;
 public class DemoAppServlet extends TouchKitServlet {
     
     private DemoAppUIProvider uiProvider = new DemoAppUIProvider();
+
+    private transient ImageVariantHandler imageVariants;
+
+    private transient ManifestHandler manifests;
+
+    private transient StaticResourceHandler staticResources;
+
+    private transient FallbackPageHandler fallbackPage;
     
     @Override
     protected void servletInitialized() throws ServletException {
         super.servletInitialized();
+        // The widgetset emits service workers, which install the small
+        // resources from bundles
+        getTouchKitSettings().getApplicationCacheSettings()
+                .setServiceWorkerEnabled(true);
+        imageVariants = new ImageVariantHandler(getServletContext());
+        manifests = new ManifestHandler(getServletContext());
+        String rolloutPercentage = getInitParameter("manifestRolloutPercentage");
+        if (rolloutPercentage != null) {
+            manifests.setRolloutPercentage(Integer.parseInt(rolloutPercentage));
+        }
+        String maxUpdates = getInitParameter("manifestMaxUpdatesPerSecond");
+        if (maxUpdates != null) {
+            manifests.setMaxUpdatesPerSecond(Integer.parseInt(maxUpdates));
+        }
+        staticResources = new StaticResourceHandler(getServletContext());
+        fallbackPage = new FallbackPageHandler();
         getService().addSessionInitListener(new SessionInitListener() {
             @Override
             public void sessionInit(SessionInitEvent event) throws ServiceException {
@@ -25,4 +53,23 @@ public class DemoAppServlet extends TouchKitServlet {
         });
     }
 
+    @Override
+    protected void service(HttpServletRequest request,
+            HttpServletResponse response) throws ServletException, IOException {
+        String pathInfo = request.getPathInfo();
+        if (pathInfo != null && pathInfo.endsWith(".sw.js")) {
+            // Service workers live in the widgetset directory but must be
+            // able to control the whole application.
+            response.setHeader("Service-Worker-Allowed",
+                    request.getContextPath() + "/");
+        }
+        if (manifests.handle(request, response)
+                || imageVariants.handle(request, response)
+                || staticResources.handle(request, response)
+                || fallbackPage.handle(request, response)) {
+            return;
+        }
+        super.service(request, response);
+    }
+
 }
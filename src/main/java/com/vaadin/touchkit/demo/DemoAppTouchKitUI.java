@@ -7,7 +7,11 @@ import com.vaadin.annotations.Theme;
 import com.vaadin.annotations.Widgetset;
 //import com.vaadin.server.FontAwesome;
 import com.vaadin.server.VaadinRequest;
+import com.vaadin.touchkit.demo.ui.LazyTabs;
 import com.vaadin.touchkit.demo.ui.MenuView;
+import com.vaadin.touchkit.demo.ui.TabContentFactory;
+import com.vaadin.touchkit.demo.ui.ViewCache;
+import com.vaadin.ui.Component;
 import com.vaadin.ui.Label;
 import com.vaadin.ui.TabSheet.Tab;
 import com.vaadin.ui.UI;
@@ -20,18 +24,42 @@ import com.vaadin.ui.UI;
 @Theme("touchkit")
 public class DemoAppTouchKitUI extends UI {
 
+    /**
+     * The content of the tabs not used for this long is detached.
+     */
+    private static final long TAB_IDLE_MILLIS = 5 * 60 * 1000;
+
+    private static final int MAX_CACHED_VIEWS = 8;
+
+    private final ViewCache viewCache = new ViewCache(MAX_CACHED_VIEWS);
+
     @Override
     protected void init(VaadinRequest request) {
         final TabBarView tabBarView = new TabBarView();
-        final NavigationManager navigationManager = new NavigationManager();
-        navigationManager.setCaption("Tab 1");
-        navigationManager.setCurrentComponent(new MenuView());
+        LazyTabs tabs = new LazyTabs(tabBarView, TAB_IDLE_MILLIS);
         Tab tab;
-        tab = tabBarView.addTab(navigationManager);
+        tab = tabs.addTab("Tab 1", new TabContentFactory() {
+            @Override
+            public Component createContent() {
+                final NavigationManager navigationManager = new NavigationManager();
+                navigationManager.setCurrentComponent(new MenuView(viewCache));
+                return navigationManager;
+            }
+        });
         //tab.setIcon(FontAwesome.BOOK);
-        tab = tabBarView.addTab(new Label("Tab 2"), "Tab 2");
+        tab = tabs.addTab("Tab 2", new TabContentFactory() {
+            @Override
+            public Component createContent() {
+                return new Label("Tab 2");
+            }
+        });
         //tab.setIcon(FontAwesome.AMBULANCE);
-        tab = tabBarView.addTab(new Label("Tab 3"), "Tab 3");
+        tab = tabs.addTab("Tab 3", new TabContentFactory() {
+            @Override
+            public Component createContent() {
+                return new Label("Tab 3");
+            }
+        });
         //tab.setIcon(FontAwesome.DOWNLOAD);
         setContent(tabBarView);
     }
@@ -2,25 +2,38 @@ package com.vaadin.touchkit.demo;
 
 import com.vaadin.server.UIClassSelectionEvent;
 import com.vaadin.server.UIProvider;
-import com.vaadin.server.VaadinSession;
 import com.vaadin.ui.UI;
 
 @SuppressWarnings("serial")
 public class DemoAppUIProvider extends UIProvider {
+
+    private static final DeviceClassifier deviceClassifier = new DeviceClassifier(
+            10000);
     
     @Override
     public Class<? extends UI> getUIClass(UIClassSelectionEvent event) {
-        String userAgent = event.getRequest().getHeader("user-agent").toLowerCase();
-        boolean mobileParameter = event.getRequest().getParameter("mobile") != null;
-        if (overrideMobileUA() || userAgent.contains("mobile") || mobileParameter) {
+        boolean mobileParameter = event.getRequest().getParameter(
+                FallbackPageHandler.MOBILE) != null;
+        boolean mobileCookie = FallbackPageHandler.hasMobileCookie(event
+                .getRequest().getCookies());
+        if (mobileParameter || mobileCookie || getDeviceType(event).isTouch()) {
             return DemoAppTouchKitUI.class;
         } else {
             return DemoAppFallbackUI.class;
         }
     }
-    
-    private boolean overrideMobileUA() {
-        VaadinSession session = VaadinSession.getCurrent();
-        return session != null && session.getAttribute("mobile") != null;
+
+    private static DeviceClassifier.DeviceType getDeviceType(
+            UIClassSelectionEvent event) {
+        return deviceClassifier.classify(event.getRequest().getHeader(
+                "user-agent"));
+    }
+
+    /**
+     * @return the classifier shared by all the sessions, e.g. for monitoring
+     *         its hit rate
+     */
+    public static DeviceClassifier getDeviceClassifier() {
+        return deviceClassifier;
     }
 }
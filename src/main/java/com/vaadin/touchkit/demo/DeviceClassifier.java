@@ -0,0 +1,131 @@
+package com.vaadin.touchkit.demo;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+/**
+ * Classifies browsers by their User-Agent header. The results are cached by
+ * the raw header, so that the same browsers logging in over and over again
+ * are classified with a single lookup. The cache is split in segments with
+ * their own locks, each evicting its least recently used entries.
+ */
+public class DeviceClassifier {
+
+    public enum DeviceType {
+        DESKTOP, MOBILE, TABLET, WEBVIEW;
+
+        /**
+         * @return true if the device should get the touch optimized UI
+         */
+        public boolean isTouch() {
+            return this != DESKTOP;
+        }
+    }
+
+    private static final int SEGMENTS = 16;
+
+    // In-app browsers: Android WebView, iOS without Safari, hybrid containers
+    // and the browsers embedded in social apps
+    private static final Pattern WEBVIEW = Pattern.compile(
+            "; wv\\)|\\b(iphone|ipod|ipad)\\b(?!.*safari/)|cordova|phonegap"
+                    + "|fban|fbav|instagram", Pattern.CASE_INSENSITIVE);
+
+    // Desktop Windows reports "Tablet PC 2.0" when pen input is installed
+    private static final Pattern TABLET = Pattern.compile(
+            "ipad|android(?!.*mobile)|tablet(?! pc)|kindle|silk|playbook",
+            Pattern.CASE_INSENSITIVE);
+
+    private static final Pattern MOBILE = Pattern.compile(
+            "mobile|iphone|ipod|android|blackberry|opera mini",
+            Pattern.CASE_INSENSITIVE);
+
+    private final Segment[] segments = new Segment[SEGMENTS];
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * @param maxEntries
+     *            the maximum number of User-Agent headers cached
+     */
+    public DeviceClassifier(int maxEntries) {
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment(Math.max(1, maxEntries / SEGMENTS));
+        }
+    }
+
+    /**
+     * @param userAgent
+     *            the User-Agent header, may be null
+     * @return the type of the device
+     */
+    public DeviceType classify(String userAgent) {
+        if (userAgent == null) {
+            return DeviceType.DESKTOP;
+        }
+        Segment segment = segments[(userAgent.hashCode() & Integer.MAX_VALUE)
+                % SEGMENTS];
+        DeviceType type;
+        synchronized (segment) {
+            type = segment.get(userAgent);
+        }
+        if (type != null) {
+            hits.incrementAndGet();
+            return type;
+        }
+        misses.incrementAndGet();
+        type = match(userAgent);
+        synchronized (segment) {
+            segment.put(userAgent, type);
+        }
+        return type;
+    }
+
+    private static DeviceType match(String userAgent) {
+        if (WEBVIEW.matcher(userAgent).find()) {
+            return DeviceType.WEBVIEW;
+        }
+        if (TABLET.matcher(userAgent).find()) {
+            return DeviceType.TABLET;
+        }
+        if (MOBILE.matcher(userAgent).find()) {
+            return DeviceType.MOBILE;
+        }
+        return DeviceType.DESKTOP;
+    }
+
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * @return the share of classifications answered from the cache, 0-1
+     */
+    public double getHitRate() {
+        long h = hits.get();
+        long total = h + misses.get();
+        return total == 0 ? 0 : (double) h / total;
+    }
+
+    @SuppressWarnings("serial")
+    private static class Segment extends LinkedHashMap<String, DeviceType> {
+        private final int maxEntries;
+
+        private Segment(int maxEntries) {
+            super(16, 0.75f, true);
+            this.maxEntries = maxEntries;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, DeviceType> eldest) {
+            return size() > maxEntries;
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package com.vaadin.touchkit.demo;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Serves a static page to desktop browsers instead of starting
+ * {@link DemoAppFallbackUI}, so that desktop visitors and crawlers don't
+ * allocate a session. The page links to the application with the
+ * {@value #MOBILE} parameter, which is then remembered in a cookie of the
+ * same name. {@link DemoAppUIProvider} gives the TouchKit UI to requests with
+ * either.
+ */
+public class FallbackPageHandler {
+
+    static final String MOBILE = "mobile";
+
+    private static final int MOBILE_COOKIE_MAX_AGE = 60 * 60 * 24 * 365;
+
+    private static final byte[] PAGE;
+    static {
+        try {
+            PAGE = ("<!DOCTYPE html>\n"
+                    + "<html><head><meta charset=\"UTF-8\">"
+                    + "<title>TouchKit Demo</title></head>"
+                    + "<body style=\"font-family: sans-serif; margin: 18px\">"
+                    + "You seem to be using a desktop browser. "
+                    + "<a href=\"?" + MOBILE + "\">Continue anyway.</a>"
+                    + "</body></html>\n").getBytes("UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Serves the fallback page for plain page loads by desktop browsers.
+     * Remembers the choice to continue with the TouchKit UI in a cookie.
+     *
+     * @return true if the response was written, false if the request should
+     *         be handled normally
+     */
+    public boolean handle(HttpServletRequest request,
+            HttpServletResponse response) throws IOException {
+        if (!"GET".equals(request.getMethod())) {
+            return false;
+        }
+        String pathInfo = request.getPathInfo();
+        if (pathInfo != null && !pathInfo.equals("/")) {
+            return false;
+        }
+        if (request.getParameter(MOBILE) != null) {
+            Cookie cookie = new Cookie(MOBILE, "true");
+            cookie.setMaxAge(MOBILE_COOKIE_MAX_AGE);
+            String contextPath = request.getContextPath();
+            cookie.setPath(contextPath.length() == 0 ? "/" : contextPath);
+            response.addCookie(cookie);
+            return false;
+        }
+        String query = request.getQueryString();
+        if (query != null && query.contains("v-")
+                || hasMobileCookie(request.getCookies())
+                || DemoAppUIProvider.getDeviceClassifier()
+                        .classify(request.getHeader("User-Agent")).isTouch()) {
+            return false;
+        }
+
+        response.setContentType("text/html; charset=UTF-8");
+        response.setHeader("Cache-Control", "no-cache");
+        response.setHeader("Vary", "User-Agent, Cookie");
+        response.setContentLength(PAGE.length);
+        response.getOutputStream().write(PAGE);
+        return true;
+    }
+
+    static boolean hasMobileCookie(Cookie[] cookies) {
+        if (cookies != null) {
+            for (Cookie cookie : cookies) {
+                if (MOBILE.equals(cookie.getName())) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,199 @@
+package com.vaadin.touchkit.demo;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.URI;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.servlet.ServletContext;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Serves the optimized image variants emitted by the cache manifest linker
+ * for the URLs of the images they replace, so themes can keep referring to
+ * the original images. The variants are read from the
+ * <code>images.txt</code> tables of all widgetsets. A table is read again when
+ * its widgetset is recompiled, which is checked at most once per
+ * {@link ManifestHandler#CHECK_INTERVAL_MILLIS}. The variants are validated
+ * by their digest and modification time, so revalidations are answered with
+ * <code>304 Not Modified</code>.
+ */
+public class ImageVariantHandler {
+
+    private static final String WIDGETSETS = "/VAADIN/widgetsets/";
+
+    private final ServletContext servletContext;
+
+    private final ConcurrentMap<String, VariantTable> tables = new ConcurrentHashMap<String, VariantTable>();
+
+    private volatile long checked;
+
+    public ImageVariantHandler(ServletContext servletContext) {
+        this.servletContext = servletContext;
+    }
+
+    /**
+     * Serves the optimized variant of the requested image if there is one.
+     *
+     * @return true if the response was written, false if the request should
+     *         be handled normally
+     */
+    public boolean handle(HttpServletRequest request,
+            HttpServletResponse response) throws IOException {
+        String pathInfo = request.getPathInfo();
+        boolean head = "HEAD".equals(request.getMethod());
+        if (!head && !"GET".equals(request.getMethod()) || pathInfo == null
+                || !pathInfo.endsWith(".png")) {
+            return false;
+        }
+        String variant = getVariant(pathInfo);
+        if (variant == null) {
+            return false;
+        }
+        URL url = servletContext.getResource(variant);
+        if (url == null) {
+            return false;
+        }
+        URLConnection connection = url.openConnection();
+        long lastModified = connection.getLastModified();
+        int length = connection.getContentLength();
+        InputStream in = connection.getInputStream();
+        try {
+            response.setContentType("image/png");
+            response.setHeader("Cache-Control", "max-age=" + 60 * 60);
+            // The variants are named by the digest of their content
+            String etag = "\""
+                    + variant.substring(variant.lastIndexOf('/') + 1,
+                            variant.lastIndexOf('.')) + "\"";
+            response.setHeader("ETag", etag);
+            if (lastModified > 0) {
+                response.setDateHeader("Last-Modified", lastModified);
+            }
+            if (StaticResourceHandler.isNotModified(request, etag,
+                    lastModified)) {
+                response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+                return true;
+            }
+            if (length >= 0) {
+                response.setContentLength(length);
+            }
+            if (head) {
+                return true;
+            }
+            OutputStream out = response.getOutputStream();
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+        } finally {
+            in.close();
+        }
+        return true;
+    }
+
+    private String getVariant(String path) throws IOException {
+        long now = System.currentTimeMillis();
+        if (now - checked >= ManifestHandler.CHECK_INTERVAL_MILLIS) {
+            checkTables();
+            checked = now;
+        }
+        for (VariantTable table : tables.values()) {
+            String variant = table.variants.get(path);
+            if (variant != null) {
+                return variant;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Reads the tables of new and recompiled widgetsets, and forgets the
+     * tables of removed ones.
+     */
+    private void checkTables() throws IOException {
+        Set<String> moduleDirs = servletContext.getResourcePaths(WIDGETSETS);
+        if (moduleDirs == null) {
+            moduleDirs = Collections.emptySet();
+        }
+        tables.keySet().retainAll(moduleDirs);
+        for (String moduleDir : moduleDirs) {
+            if (!moduleDir.endsWith("/")) {
+                continue;
+            }
+            long lastModified = getLastModified(moduleDir + "images.txt");
+            VariantTable table = tables.get(moduleDir);
+            if (table == null || table.lastModified != lastModified) {
+                tables.put(moduleDir, new VariantTable(readTable(moduleDir),
+                        lastModified));
+            }
+        }
+    }
+
+    /**
+     * @return the modification time of the file, or 0 if it doesn't exist or
+     *         the widgetsets are not deployed as files
+     */
+    private long getLastModified(String path) {
+        String realPath = servletContext.getRealPath(path);
+        return realPath == null ? 0 : new File(realPath).lastModified();
+    }
+
+    /**
+     * Reads the table of a widgetset. The paths in it are relative to the
+     * widgetset directory and are resolved to absolute paths.
+     */
+    private Map<String, String> readTable(String moduleDir) throws IOException {
+        InputStream in = servletContext.getResourceAsStream(moduleDir
+                + "images.txt");
+        if (in == null) {
+            return Collections.emptyMap();
+        }
+        Map<String, String> map = new HashMap<String, String>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in,
+                "UTF-8"));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] columns = line.split("\t");
+                if (columns.length == 3) {
+                    map.put(resolve(moduleDir, columns[1]),
+                            resolve(moduleDir, columns[2]));
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        return map;
+    }
+
+    private static String resolve(String moduleDir, String path) {
+        return URI.create(moduleDir).resolve(path).normalize().getPath();
+    }
+
+    /**
+     * The variants of a widgetset, by the absolute paths of the images they
+     * replace.
+     */
+    private static class VariantTable {
+        private final Map<String, String> variants;
+        private final long lastModified;
+
+        private VariantTable(Map<String, String> variants, long lastModified) {
+            this.variants = variants;
+            this.lastModified = lastModified;
+        }
+    }
+}
@@ -0,0 +1,288 @@
+package com.vaadin.touchkit.demo;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.servlet.ServletContext;
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Serves the cache manifests of the widgetsets from memory. Devices check
+ * their manifest periodically, so each manifest is read and digested once and
+ * the checks are answered with <code>304 Not Modified</code> based on its
+ * strong ETag. A manifest is read again when its widgetset directory changes,
+ * which is checked at most once per {@link #CHECK_INTERVAL_MILLIS}.
+ * <p>
+ * Updates can be rolled out gradually. Each device is assigned to a bucket
+ * by a cookie, and devices outside the rollout percentage that present the
+ * ETag of any other version of a manifest are told their version is not
+ * modified. Any earlier version is held back, not just the one this server
+ * replaced, so the rollout also applies to the devices that cached a
+ * manifest before the application was redeployed. The number of updated
+ * manifests sent per second can also be limited, the devices over the limit
+ * are asked to retry later.
+ */
+public class ManifestHandler {
+
+    private static final String WIDGETSETS = "/VAADIN/widgetsets/";
+
+    static final long CHECK_INTERVAL_MILLIS = 5000;
+
+    static final String DEVICE_COOKIE = "touchkit-device";
+
+    private static final int DEVICE_COOKIE_MAX_AGE = 60 * 60 * 24 * 365 * 10;
+
+    private final ServletContext servletContext;
+
+    private final ConcurrentMap<String, Manifest> manifests = new ConcurrentHashMap<String, Manifest>();
+
+    private final Random random = new Random();
+
+    private volatile int rolloutPercentage = 100;
+
+    private volatile int maxUpdatesPerSecond = 0;
+
+    /**
+     * The current second and the number of updates sent in it, in the high
+     * and low 32 bits.
+     */
+    private final AtomicLong updates = new AtomicLong();
+
+    public ManifestHandler(ServletContext servletContext) {
+        this.servletContext = servletContext;
+    }
+
+    /**
+     * Serves the requested manifest.
+     *
+     * @return true if the response was written, false if the request should
+     *         be handled normally
+     */
+    public boolean handle(HttpServletRequest request,
+            HttpServletResponse response) throws IOException {
+        String pathInfo = request.getPathInfo();
+        boolean head = "HEAD".equals(request.getMethod());
+        if (!head && !"GET".equals(request.getMethod()) || pathInfo == null
+                || !pathInfo.startsWith(WIDGETSETS)
+                || !pathInfo.endsWith(".manifest")) {
+            return false;
+        }
+        Manifest manifest = getManifest(pathInfo);
+        if (manifest == null) {
+            return false;
+        }
+
+        // Always revalidate, the ETag makes it cheap
+        response.setHeader("Cache-Control", "no-cache");
+        String ifNoneMatch = request.getHeader("If-None-Match");
+        if (matches(ifNoneMatch, manifest.etag)) {
+            response.setHeader("ETag", manifest.etag);
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return true;
+        }
+        if (ifNoneMatch != null) {
+            // An update for a device having an earlier version
+            String cachedEtag = getCachedEtag(ifNoneMatch);
+            if (cachedEtag != null
+                    && getDeviceBucket(request, response) >= rolloutPercentage) {
+                response.setHeader("ETag", cachedEtag);
+                response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+                return true;
+            }
+            if (!acquireUpdate()) {
+                // Spread the retries instead of having them at once
+                response.setHeader("Retry-After",
+                        String.valueOf(1 + random.nextInt(60)));
+                response.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+                return true;
+            }
+        }
+        response.setHeader("ETag", manifest.etag);
+        response.setContentType("text/cache-manifest");
+        response.setContentLength(manifest.bytes.length);
+        if (!head) {
+            response.getOutputStream().write(manifest.bytes);
+        }
+        return true;
+    }
+
+    /**
+     * Sets the percentage of devices that get a new version of a manifest,
+     * the rest keep the version they have until the percentage is raised. The
+     * devices without any version always get the new one.
+     *
+     * @param rolloutPercentage
+     *            0-100, 100 by default
+     */
+    public void setRolloutPercentage(int rolloutPercentage) {
+        this.rolloutPercentage = rolloutPercentage;
+    }
+
+    /**
+     * Limits the number of updated manifests sent per second. The devices
+     * over the limit get <code>503 Service Unavailable</code> with a
+     * Retry-After header, and keep their current version.
+     *
+     * @param maxUpdatesPerSecond
+     *            the limit, 0 (the default) for unlimited
+     */
+    public void setMaxUpdatesPerSecond(int maxUpdatesPerSecond) {
+        this.maxUpdatesPerSecond = maxUpdatesPerSecond;
+    }
+
+    private boolean acquireUpdate() {
+        int max = maxUpdatesPerSecond;
+        if (max <= 0) {
+            return true;
+        }
+        long second = System.currentTimeMillis() / 1000;
+        while (true) {
+            long current = updates.get();
+            long count = current >>> 32 == (second & 0xffffffffL) ? current & 0xffffffffL
+                    : 0;
+            if (count >= max) {
+                return false;
+            }
+            if (updates.compareAndSet(current, (second << 32) | (count + 1))) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * @return the rollout bucket of the device, 0-99, assigning a new device
+     *         cookie if needed
+     */
+    private int getDeviceBucket(HttpServletRequest request,
+            HttpServletResponse response) {
+        String device = null;
+        Cookie[] cookies = request.getCookies();
+        if (cookies != null) {
+            for (Cookie cookie : cookies) {
+                if (DEVICE_COOKIE.equals(cookie.getName())) {
+                    device = cookie.getValue();
+                }
+            }
+        }
+        if (device == null) {
+            device = Long.toHexString(random.nextLong());
+            Cookie cookie = new Cookie(DEVICE_COOKIE, device);
+            cookie.setMaxAge(DEVICE_COOKIE_MAX_AGE);
+            String contextPath = request.getContextPath();
+            cookie.setPath(contextPath.length() == 0 ? "/" : contextPath);
+            response.addCookie(cookie);
+        }
+        return (device.hashCode() & Integer.MAX_VALUE) % 100;
+    }
+
+    private static boolean matches(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        for (String candidate : ifNoneMatch.split(",")) {
+            candidate = candidate.trim();
+            if (candidate.equals(etag) || candidate.equals("*")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the first ETag in the If-None-Match header, or null if there is
+     *         none other than "*"
+     */
+    private static String getCachedEtag(String ifNoneMatch) {
+        for (String candidate : ifNoneMatch.split(",")) {
+            candidate = candidate.trim();
+            if (candidate.length() > 0 && !candidate.equals("*")) {
+                return candidate;
+            }
+        }
+        return null;
+    }
+
+    private Manifest getManifest(String path) throws IOException {
+        Manifest manifest = manifests.get(path);
+        long now = System.currentTimeMillis();
+        if (manifest != null) {
+            if (now - manifest.checked < CHECK_INTERVAL_MILLIS) {
+                return manifest;
+            }
+            if (manifest.lastModified == getLastModified(path)) {
+                manifest.checked = now;
+                return manifest;
+            }
+        }
+        long lastModified = getLastModified(path);
+        InputStream in = servletContext.getResourceAsStream(path);
+        if (in == null) {
+            manifests.remove(path);
+            return null;
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try {
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                bytes.write(buffer, 0, read);
+            }
+        } finally {
+            in.close();
+        }
+        manifest = new Manifest(bytes.toByteArray(), lastModified, now);
+        manifests.put(path, manifest);
+        return manifest;
+    }
+
+    /**
+     * @return the latest modification time of the manifest and its widgetset
+     *         directory, or 0 if the widgetset is not deployed as files
+     */
+    private long getLastModified(String path) {
+        String realPath = servletContext.getRealPath(path);
+        if (realPath == null) {
+            return 0;
+        }
+        File file = new File(realPath);
+        return Math.max(file.lastModified(),
+                file.getParentFile().lastModified());
+    }
+
+    private static class Manifest {
+        private final byte[] bytes;
+        private final String etag;
+        private final long lastModified;
+        private volatile long checked;
+
+        private Manifest(byte[] bytes, long lastModified, long checked) {
+            this.bytes = bytes;
+            this.lastModified = lastModified;
+            this.checked = checked;
+            etag = "\"" + digest(bytes) + "\"";
+        }
+    }
+
+    private static String digest(byte[] bytes) {
+        try {
+            StringBuilder sb = new StringBuilder();
+            for (byte b : MessageDigest.getInstance("SHA-1").digest(bytes)) {
+                sb.append(Character.forDigit((b >> 4) & 0xf, 16));
+                sb.append(Character.forDigit(b & 0xf, 16));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -0,0 +1,414 @@
+package com.vaadin.touchkit.demo;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.servlet.ServletContext;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Serves the files of the widgetsets and themes from memory, so the hot files
+ * of an application are not read through the generic static resource
+ * handling on each request.
+ * <p>
+ * Files compiled with a hashed name (<code>.cache.</code>) never change, so
+ * they are memory-mapped and read from the page cache. They are sent with
+ * far-future immutable cache headers, and containers supporting sendfile
+ * (e.g. Tomcat) send them without copying them through the application. The
+ * other files may be rewritten by an in-place widgetset compile at any time,
+ * and reading a mapping of a truncated file would crash the JVM, so they are
+ * copied onto the heap instead. The least recently used files are released
+ * when more than {@link #MAX_CACHED_BYTES} are held.
+ * <p>
+ * The gzipped variants emitted by the cache manifest linker are served to the
+ * browsers accepting them, so the widgetset is never compressed at runtime.
+ * The variants available in each widgetset are listed in the
+ * <code>precompressed.txt</code> table written by the linker. Single byte
+ * ranges are supported.
+ */
+public class StaticResourceHandler {
+
+    static final long MAX_CACHED_BYTES = 64 * 1024 * 1024;
+
+    static final long MAX_FILE_BYTES = 8 * 1024 * 1024;
+
+    private static final String WIDGETSETS = "/VAADIN/widgetsets/";
+
+    private static final String[] ROOTS = { WIDGETSETS, "/VAADIN/themes/" };
+
+    private static final String SENDFILE_SUPPORT = "org.apache.tomcat.sendfile.support";
+
+    private final ServletContext servletContext;
+
+    /**
+     * Cached files in access order, guarded by itself.
+     */
+    private final LinkedHashMap<String, CachedFile> files = new LinkedHashMap<String, CachedFile>(
+            16, 0.75f, true);
+
+    private long cachedBytes = 0;
+
+    private final ConcurrentMap<String, PrecompressedTable> tables = new ConcurrentHashMap<String, PrecompressedTable>();
+
+    public StaticResourceHandler(ServletContext servletContext) {
+        this.servletContext = servletContext;
+    }
+
+    /**
+     * Serves the requested widgetset or theme file, or its precompressed
+     * variant if there is one and the browser accepts it.
+     *
+     * @return true if the response was written, false if the request should
+     *         be handled normally
+     */
+    public boolean handle(HttpServletRequest request,
+            HttpServletResponse response) throws IOException {
+        String pathInfo = request.getPathInfo();
+        boolean head = "HEAD".equals(request.getMethod());
+        if (!head && !"GET".equals(request.getMethod()) || pathInfo == null
+                || !isStaticResource(pathInfo)) {
+            return false;
+        }
+        boolean gzip = false;
+        if (isPrecompressed(pathInfo)) {
+            // Caches must not mix the variants
+            response.setHeader("Vary", "Accept-Encoding");
+            gzip = acceptsGzip(request);
+        }
+        CachedFile file = getFile(gzip ? pathInfo + ".gz" : pathInfo);
+        if (file == null) {
+            return false;
+        }
+
+        String mimeType = servletContext.getMimeType(pathInfo);
+        if (mimeType != null) {
+            response.setContentType(mimeType);
+        }
+        if (gzip) {
+            response.setHeader("Content-Encoding", "gzip");
+        }
+        response.setHeader("ETag", file.etag);
+        response.setDateHeader("Last-Modified", file.lastModified);
+        response.setHeader("Cache-Control", getCacheControl(pathInfo));
+        response.setHeader("Accept-Ranges", "bytes");
+        if (isNotModified(request, file.etag, file.lastModified)) {
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return true;
+        }
+
+        long start = 0;
+        long end = file.length - 1;
+        String range = request.getHeader("Range");
+        String ifRange = request.getHeader("If-Range");
+        if (range != null && (ifRange == null || ifRange.equals(file.etag))) {
+            long[] bounds = parseRange(range, file.length);
+            if (bounds == null) {
+                response.setHeader("Content-Range", "bytes */" + file.length);
+                response.setStatus(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+                return true;
+            }
+            if (bounds.length == 2) {
+                start = bounds[0];
+                end = bounds[1];
+                response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+                response.setHeader("Content-Range", "bytes " + start + "-"
+                        + end + "/" + file.length);
+            }
+        }
+        response.setContentLength((int) (end - start + 1));
+        if (head) {
+            return true;
+        }
+
+        if (file.immutable
+                && Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORT))) {
+            request.setAttribute("org.apache.tomcat.sendfile.filename",
+                    file.path);
+            request.setAttribute("org.apache.tomcat.sendfile.start", start);
+            request.setAttribute("org.apache.tomcat.sendfile.end", end + 1);
+            return true;
+        }
+        ByteBuffer buffer = file.buffer.duplicate();
+        buffer.position((int) start);
+        buffer.limit((int) end + 1);
+        WritableByteChannel out = Channels.newChannel(response
+                .getOutputStream());
+        while (buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+        return true;
+    }
+
+    private static boolean isStaticResource(String path) {
+        if (path.contains("/../")) {
+            return false;
+        }
+        for (String root : ROOTS) {
+            if (path.startsWith(root)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String getCacheControl(String path) {
+        if (path.contains(".nocache.")) {
+            return "no-cache";
+        }
+        if (path.contains(".cache.")) {
+            return "max-age=31536000, immutable";
+        }
+        return "max-age=3600";
+    }
+
+    /**
+     * Checks the conditional request headers against the validators of a
+     * resource.
+     *
+     * @param lastModified
+     *            the modification time of the resource, 0 if not known
+     * @return true if the resource is not modified
+     */
+    static boolean isNotModified(HttpServletRequest request, String etag,
+            long lastModified) {
+        String ifNoneMatch = request.getHeader("If-None-Match");
+        if (ifNoneMatch != null) {
+            for (String candidate : ifNoneMatch.split(",")) {
+                candidate = candidate.trim();
+                if (candidate.equals(etag) || candidate.equals("*")) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        try {
+            long ifModifiedSince = request.getDateHeader("If-Modified-Since");
+            return ifModifiedSince >= 0 && lastModified > 0
+                    && lastModified / 1000 <= ifModifiedSince / 1000;
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Parses a single byte range.
+     *
+     * @return the first and last byte of the range, an empty array if the
+     *         header should be ignored, or null if the range is not
+     *         satisfiable
+     */
+    static long[] parseRange(String range, long length) {
+        if (!range.startsWith("bytes=") || range.indexOf(',') >= 0) {
+            return new long[0];
+        }
+        String spec = range.substring("bytes=".length()).trim();
+        int dash = spec.indexOf('-');
+        if (dash < 0) {
+            return new long[0];
+        }
+        try {
+            long start;
+            long end;
+            if (dash == 0) {
+                long suffix = Long.parseLong(spec.substring(1));
+                start = Math.max(0, length - suffix);
+                end = length - 1;
+            } else {
+                start = Long.parseLong(spec.substring(0, dash));
+                end = dash == spec.length() - 1 ? length - 1 : Math.min(
+                        length - 1, Long.parseLong(spec.substring(dash + 1)));
+            }
+            if (start > end || start >= length) {
+                return null;
+            }
+            return new long[] { start, end };
+        } catch (NumberFormatException e) {
+            return new long[0];
+        }
+    }
+
+    private static boolean acceptsGzip(HttpServletRequest request) {
+        String acceptEncoding = request.getHeader("Accept-Encoding");
+        if (acceptEncoding == null) {
+            return false;
+        }
+        for (String coding : acceptEncoding.split(",")) {
+            String[] params = coding.trim().split(";");
+            if ("gzip".equalsIgnoreCase(params[0].trim())) {
+                return params.length == 1
+                        || !params[1].replace(" ", "").matches("q=0(\\.0*)?");
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return true if the linker emitted a gzipped variant of the resource
+     */
+    private boolean isPrecompressed(String path) throws IOException {
+        if (!path.startsWith(WIDGETSETS)) {
+            return false;
+        }
+        int moduleEnd = path.indexOf('/', WIDGETSETS.length());
+        if (moduleEnd < 0) {
+            return false;
+        }
+        String moduleDir = path.substring(0, moduleEnd + 1);
+        return getTable(moduleDir).paths.contains(
+                path.substring(moduleDir.length()));
+    }
+
+    /**
+     * @return the precompressed table of a widgetset, read again when the
+     *         widgetset is recompiled
+     */
+    private PrecompressedTable getTable(String moduleDir) throws IOException {
+        String realPath = servletContext.getRealPath(moduleDir
+                + "precompressed.txt");
+        File file = realPath == null ? null : new File(realPath);
+        long lastModified = file == null ? 0 : file.lastModified();
+        PrecompressedTable table = tables.get(moduleDir);
+        if (table == null || table.lastModified != lastModified) {
+            table = new PrecompressedTable(file, lastModified);
+            tables.put(moduleDir, table);
+        }
+        return table;
+    }
+
+    /**
+     * @return the cached file, or null if the resource is not a file small
+     *         enough to be cached
+     */
+    private CachedFile getFile(String path) throws IOException {
+        String realPath = servletContext.getRealPath(path);
+        if (realPath == null) {
+            return null;
+        }
+        File file = new File(realPath);
+        long lastModified = file.lastModified();
+        long length = file.length();
+        synchronized (files) {
+            CachedFile cached = files.get(path);
+            if (cached != null && cached.lastModified == lastModified
+                    && cached.length == length) {
+                return cached;
+            }
+            if (cached != null) {
+                files.remove(path);
+                cachedBytes -= cached.length;
+            }
+        }
+        if (!file.isFile() || length == 0 || length > MAX_FILE_BYTES) {
+            return null;
+        }
+
+        boolean immutable = path.contains(".cache.");
+        ByteBuffer buffer;
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            if (immutable) {
+                buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY,
+                        0, length);
+            } else {
+                byte[] bytes = new byte[(int) length];
+                raf.readFully(bytes);
+                buffer = ByteBuffer.wrap(bytes).asReadOnlyBuffer();
+            }
+        } catch (IOException e) {
+            // Truncated while being read, left to the generic handling
+            return null;
+        } finally {
+            // A mapping stays valid after the file is closed
+            raf.close();
+        }
+        CachedFile cached = new CachedFile(realPath, buffer, length,
+                lastModified, immutable);
+        synchronized (files) {
+            CachedFile previous = files.put(path, cached);
+            if (previous != null) {
+                cachedBytes -= previous.length;
+            }
+            cachedBytes += length;
+            Iterator<Map.Entry<String, CachedFile>> it = files.entrySet()
+                    .iterator();
+            while (cachedBytes > MAX_CACHED_BYTES && it.hasNext()) {
+                CachedFile eldest = it.next().getValue();
+                if (eldest != cached) {
+                    cachedBytes -= eldest.length;
+                    it.remove();
+                }
+            }
+        }
+        return cached;
+    }
+
+    private static class CachedFile {
+        private final String path;
+        private final ByteBuffer buffer;
+        private final long length;
+        private final long lastModified;
+        private final boolean immutable;
+        private final String etag;
+
+        private CachedFile(String path, ByteBuffer buffer, long length,
+                long lastModified, boolean immutable) {
+            this.path = path;
+            this.buffer = buffer;
+            this.length = length;
+            this.lastModified = lastModified;
+            this.immutable = immutable;
+            // The gzipped variant must not validate the uncompressed one
+            etag = "\"" + Long.toHexString(length) + "-"
+                    + Long.toHexString(lastModified)
+                    + (path.endsWith(".gz") ? "-gzip" : "") + "\"";
+        }
+    }
+
+    /**
+     * The paths relative to a widgetset directory that have a gzipped
+     * variant.
+     */
+    private static class PrecompressedTable {
+        private final Set<String> paths;
+        private final long lastModified;
+
+        private PrecompressedTable(File file, long lastModified)
+                throws IOException {
+            this.lastModified = lastModified;
+            if (file == null || !file.isFile()) {
+                paths = Collections.emptySet();
+                return;
+            }
+            paths = new HashSet<String>();
+            BufferedReader reader = new BufferedReader(new InputStreamReader(
+                    new FileInputStream(file), "UTF-8"));
+            try {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (line.length() > 0) {
+                        paths.add(line);
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+        }
+    }
+}
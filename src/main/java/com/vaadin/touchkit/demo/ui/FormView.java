@@ -13,27 +13,32 @@ import com.vaadin.ui.Notification;
 import com.vaadin.ui.TextField;
 
 @SuppressWarnings("serial")
-public class FormView extends NavigationView {
+public class FormView extends NavigationView implements ResettableView {
     
-    private final DemoAppPersistToServerRpc serverRpc = new DemoAppPersistToServerRpc() {
+    // Stateless, so shared by all the views
+    private static final DemoAppPersistToServerRpc serverRpc = new DemoAppPersistToServerRpc() {
         @Override
         public void persistToServer() {
             Notification.show("Thanks !!");
         }
     };
 
+    private final TextField nameField;
+    private final DatePicker dateField;
+    private final EmailField emailField;
+
     public FormView() {
         setCaption("Form");
         final VerticalComponentGroup content = new VerticalComponentGroup();
 
-        final TextField nameField = new TextField("Name");
+        nameField = new TextField("Name");
         nameField.setInputPrompt("Enter your name...");
         content.addComponent(nameField);
 
-        final DatePicker dateField = new DatePicker("Date of Birth");
+        dateField = new DatePicker("Date of Birth");
         content.addComponent(dateField);
 
-        final EmailField emailField = new EmailField("Email");
+        emailField = new EmailField("Email");
         emailField.setInputPrompt("Enter your email address...");
         content.addComponent(emailField);
 
@@ -48,4 +53,11 @@ public class FormView extends NavigationView {
         setContent(new CssLayout(content, submitButton));
     }
 
+    @Override
+    public void resetState() {
+        nameField.setValue("");
+        dateField.setValue(null);
+        emailField.setValue("");
+    }
+
 }
@@ -0,0 +1,107 @@
+package com.vaadin.touchkit.demo.ui;
+
+import java.io.Serializable;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.vaadin.addon.touchkit.ui.TabBarView;
+import com.vaadin.addon.touchkit.ui.TabBarView.SelectedTabChangeEvent;
+import com.vaadin.addon.touchkit.ui.TabBarView.SelectedTabChangeListener;
+import com.vaadin.ui.Component;
+import com.vaadin.ui.CssLayout;
+import com.vaadin.ui.TabSheet.Tab;
+
+/**
+ * Adds tabs to a {@link TabBarView} without creating their content. Each tab
+ * holds an empty placeholder until it is first selected, when its content is
+ * created by its factory.
+ * <p>
+ * Optionally, the content of a tab that hasn't been selected for a while is
+ * detached, and created again when the tab is selected the next time. Idle
+ * tabs are detached when the selected tab changes.
+ */
+@SuppressWarnings("serial")
+public class LazyTabs implements SelectedTabChangeListener {
+
+    private final TabBarView tabBarView;
+
+    private final long idleMillis;
+
+    private final Map<CssLayout, LazyTab> tabs = new LinkedHashMap<CssLayout, LazyTab>();
+
+    private LazyTab selected;
+
+    private static class LazyTab implements Serializable {
+        private final TabContentFactory factory;
+        /**
+         * When the tab was last visible.
+         */
+        private long lastSelected;
+
+        private LazyTab(TabContentFactory factory) {
+            this.factory = factory;
+        }
+    }
+
+    /**
+     * @param tabBarView
+     *            the tab bar to add the tabs to
+     * @param idleMillis
+     *            the time after which the content of a tab that is not
+     *            selected is detached, 0 to keep the content
+     */
+    public LazyTabs(TabBarView tabBarView, long idleMillis) {
+        this.tabBarView = tabBarView;
+        this.idleMillis = idleMillis;
+        tabBarView.addListener(this);
+    }
+
+    /**
+     * Adds a tab whose content is created when the tab is selected. The first
+     * tab added is selected, so its content is created immediately.
+     *
+     * @return the new tab
+     */
+    public Tab addTab(String caption, TabContentFactory factory) {
+        CssLayout placeholder = new CssLayout();
+        placeholder.setSizeFull();
+        tabs.put(placeholder, new LazyTab(factory));
+        Tab tab = tabBarView.addTab(placeholder, caption);
+        if (tabs.size() == 1) {
+            select(placeholder);
+        }
+        return tab;
+    }
+
+    @Override
+    public void selectedTabChange(SelectedTabChangeEvent event) {
+        Tab selected = tabBarView.getSelelectedTab();
+        if (selected != null) {
+            select(selected.getComponent());
+        }
+    }
+
+    private void select(Component placeholder) {
+        long now = System.currentTimeMillis();
+        if (selected != null) {
+            // Visible until now
+            selected.lastSelected = now;
+        }
+        for (Map.Entry<CssLayout, LazyTab> e : tabs.entrySet()) {
+            CssLayout layout = e.getKey();
+            LazyTab tab = e.getValue();
+            if (layout == placeholder) {
+                selected = tab;
+                tab.lastSelected = now;
+                if (layout.getComponentCount() == 0) {
+                    Component content = tab.factory.createContent();
+                    content.setSizeFull();
+                    layout.addComponent(content);
+                }
+            } else if (idleMillis > 0 && layout.getComponentCount() > 0
+                    && now - tab.lastSelected > idleMillis) {
+                layout.removeAllComponents();
+            }
+        }
+    }
+}
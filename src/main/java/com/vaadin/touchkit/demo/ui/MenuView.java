@@ -9,7 +9,11 @@ import com.vaadin.addon.touchkit.ui.VerticalComponentGroup;
 @SuppressWarnings("serial")
 public class MenuView extends NavigationView {
 
-    public MenuView() {
+    /**
+     * @param viewCache
+     *            the views of the UI, reused when navigating back and forth
+     */
+    public MenuView(final ViewCache viewCache) {
         setCaption("Menu");
 
         final VerticalComponentGroup content = new VerticalComponentGroup();
@@ -17,7 +21,8 @@ public class MenuView extends NavigationView {
         button.addClickListener(new NavigationButtonClickListener() {
             @Override
             public void buttonClick(NavigationButtonClickEvent event) {
-                getNavigationManager().navigateTo(new FormView());
+                getNavigationManager().navigateTo(
+                        viewCache.get(FormView.class));
             }
         });
         content.addComponent(button);
@@ -0,0 +1,13 @@
+package com.vaadin.touchkit.demo.ui;
+
+/**
+ * A view that can be reused by {@link ViewCache}.
+ */
+public interface ResettableView {
+
+    /**
+     * Restores the state of a new instance of the view, before it is shown
+     * again.
+     */
+    void resetState();
+}
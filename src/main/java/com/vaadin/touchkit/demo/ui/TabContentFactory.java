@@ -0,0 +1,17 @@
+package com.vaadin.touchkit.demo.ui;
+
+import java.io.Serializable;
+
+import com.vaadin.ui.Component;
+
+/**
+ * Creates the content of a tab added to {@link LazyTabs}, when the tab is
+ * first selected.
+ */
+public interface TabContentFactory extends Serializable {
+
+    /**
+     * @return the content of the tab, a new instance every time
+     */
+    Component createContent();
+}
@@ -0,0 +1,66 @@
+package com.vaadin.touchkit.demo.ui;
+
+import java.io.Serializable;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.vaadin.ui.Component;
+
+/**
+ * Keeps the views of a UI for reuse, so that navigating back and forth
+ * doesn't create the views and their client side connectors again. Views
+ * implementing {@link ResettableView} are reset before they are reused.
+ * <p>
+ * Components can't be shared between UIs, so each UI has its own cache. The
+ * least recently used views are dropped when the cache is full.
+ */
+@SuppressWarnings("serial")
+public class ViewCache implements Serializable {
+
+    private final LinkedHashMap<Class<?>, Component> views;
+
+    /**
+     * @param maxViews
+     *            the maximum number of views kept
+     */
+    public ViewCache(final int maxViews) {
+        views = new LinkedHashMap<Class<?>, Component>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(
+                    Map.Entry<Class<?>, Component> eldest) {
+                return size() > maxViews;
+            }
+        };
+    }
+
+    /**
+     * Returns the cached view of the given type, or a new one created with
+     * its default constructor.
+     */
+    public <T extends Component> T get(Class<T> type) {
+        Component view = views.get(type);
+        if (view != null) {
+            if (view instanceof ResettableView) {
+                ((ResettableView) view).resetState();
+            }
+            return type.cast(view);
+        }
+        T newView;
+        try {
+            newView = type.newInstance();
+        } catch (InstantiationException e) {
+            throw new IllegalArgumentException("Unable to create " + type, e);
+        } catch (IllegalAccessException e) {
+            throw new IllegalArgumentException("Unable to create " + type, e);
+        }
+        views.put(type, newView);
+        return newView;
+    }
+
+    /**
+     * Drops all the cached views, e.g. when the data they show has changed.
+     */
+    public void clear() {
+        views.clear();
+    }
+}
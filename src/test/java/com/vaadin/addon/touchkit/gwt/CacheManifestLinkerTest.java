@@ -0,0 +1,150 @@
+package com.vaadin.addon.touchkit.gwt;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.UnsupportedEncodingException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.regex.Pattern;
+
+import org.junit.Test;
+
+import com.google.gwt.core.ext.TreeLogger;
+import com.google.gwt.core.ext.UnableToCompleteException;
+
+public class CacheManifestLinkerTest {
+
+    private static final CachedResource SCRIPT = new CachedResource(
+            "A.cache.js", "0a1b", 1000);
+    private static final CachedResource STYLES = new CachedResource(
+            "../../../VAADIN/themes/touchkit/styles.css", "2c3d", 200);
+    private static final CachedResource PAGE = new CachedResource("/", null,
+            -1);
+    private static final CachedResource IMAGE = new CachedResource(
+            "../../../VAADIN/themes/touchkit/img/splash.png", "8c9d", 300);
+
+    @Test
+    public void versionsEqualContentEqually() throws UnableToCompleteException {
+        assertEquals(version(SCRIPT, STYLES, PAGE),
+                version(new CachedResource("A.cache.js", "0a1b", 1000),
+                        STYLES, PAGE));
+    }
+
+    @Test
+    public void versionsChangeWithContent() throws UnableToCompleteException {
+        assertFalse(version(SCRIPT, STYLES).equals(
+                version(SCRIPT, new CachedResource(STYLES.getPath(), "2c3e",
+                        200))));
+    }
+
+    @Test
+    public void versionsChangeWithPaths() throws UnableToCompleteException {
+        assertFalse(version(SCRIPT, STYLES).equals(
+                version(new CachedResource("B.cache.js", "0a1b", 1000),
+                        STYLES)));
+        assertFalse(version(SCRIPT).equals(version(SCRIPT, PAGE)));
+    }
+
+    @Test
+    public void diffsConsecutiveBuilds() {
+        Map<String, CachedResource> previous = new TreeMap<String, CachedResource>();
+        previous.put(SCRIPT.getPath(), SCRIPT);
+        previous.put(STYLES.getPath(), STYLES);
+        previous.put(PAGE.getPath(), PAGE);
+        previous.put("B.cache.js", new CachedResource("B.cache.js", "4e5f",
+                3000));
+
+        String report = CacheManifestLinker.diffManifest(previous, Arrays
+                .asList(new CachedResource(SCRIPT.getPath(), "0a1c", 1100),
+                        STYLES, PAGE, new CachedResource("C.cache.js",
+                                "6a7b", 500)));
+
+        assertEquals("# 2 of 4 resources changed, 1600 of 1800 bytes"
+                + " to download\n" + "M\t1100\tA.cache.js\n"
+                + "A\t500\tC.cache.js\n" + "D\t0\tB.cache.js\n", report);
+    }
+
+    @Test
+    public void diffsFirstBuildAsAdded() {
+        String report = CacheManifestLinker.diffManifest(
+                new TreeMap<String, CachedResource>(),
+                Arrays.asList(SCRIPT, PAGE));
+
+        assertEquals("# 2 of 2 resources changed, 1000 of 1000 bytes"
+                + " to download\n" + "A\t1000\tA.cache.js\n" + "A\t0\t/\n",
+                report);
+    }
+
+    @Test
+    public void reportsManifestSize() throws UnableToCompleteException {
+        String report = CacheManifestLinker.buildSizeReport(TreeLogger.NULL,
+                Arrays.asList(SCRIPT, STYLES, PAGE), Arrays.asList(IMAGE),
+                "safari", 1200, 1);
+
+        assertEquals("{\n  \"manifest\": \"safari.manifest\",\n"
+                + "  \"totalBytes\": 1200,\n  \"fileCount\": 3,\n"
+                + "  \"deferredBytes\": 300,\n  \"deferredCount\": 1,\n"
+                + "  \"maxBytes\": 1200,\n  \"largest\": [\n"
+                + "    {\"path\": \"A.cache.js\", \"bytes\": 1000}\n  ]\n}\n",
+                report);
+    }
+
+    @Test
+    public void ignoresBudgetWhenNotSet() throws UnableToCompleteException {
+        CacheManifestLinker.buildSizeReport(TreeLogger.NULL,
+                Arrays.asList(SCRIPT, STYLES), Arrays.<CachedResource> asList(),
+                "safari", 0, 10);
+    }
+
+    @Test(expected = UnableToCompleteException.class)
+    public void failsOverBudget() throws UnableToCompleteException {
+        // Deferred resources don't count against the budget
+        CacheManifestLinker.buildSizeReport(TreeLogger.NULL,
+                Arrays.asList(SCRIPT, STYLES), Arrays.asList(IMAGE),
+                "safari", 1199, 10);
+    }
+
+    @Test
+    public void defersMatchingResourcesUnlessCritical() {
+        List<Pattern> deferred = Arrays.asList(Pattern.compile(".*\\.png"),
+                Pattern.compile(".*/fonts/.*"));
+        List<Pattern> critical = Arrays.asList(Pattern
+                .compile(".*/img/splash\\.png"));
+
+        assertTrue(CacheManifestLinker.isDeferred(
+                "../../../VAADIN/themes/touchkit/img/icon.png", deferred,
+                critical));
+        assertTrue(CacheManifestLinker.isDeferred(
+                "../../../VAADIN/themes/touchkit/fonts/icons.woff", deferred,
+                critical));
+        assertFalse(CacheManifestLinker.isDeferred(IMAGE.getPath(), deferred,
+                critical));
+        assertFalse(CacheManifestLinker.isDeferred(SCRIPT.getPath(), deferred,
+                critical));
+        assertFalse(CacheManifestLinker.isDeferred(IMAGE.getPath(),
+                Arrays.<Pattern> asList(), Arrays.<Pattern> asList()));
+    }
+
+    @Test
+    public void encodesBase64() throws UnsupportedEncodingException {
+        String[][] rows = { { "", "" }, { "f", "Zg==" }, { "fo", "Zm8=" },
+                { "foo", "Zm9v" }, { "foobar", "Zm9vYmFy" } };
+        for (String[] row : rows) {
+            assertEquals(row[0], row[1],
+                    CacheManifestLinker.toBase64(row[0].getBytes("UTF-8")));
+        }
+        assertEquals("//7/", CacheManifestLinker.toBase64(new byte[] { -1, -2,
+                -1 }));
+    }
+
+    private static String version(CachedResource... resources)
+            throws UnableToCompleteException {
+        List<CachedResource> list = Arrays.asList(resources);
+        return CacheManifestLinker.computeManifestVersion(TreeLogger.NULL,
+                list);
+    }
+}
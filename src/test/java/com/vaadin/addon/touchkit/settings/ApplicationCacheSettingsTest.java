@@ -0,0 +1,45 @@
+package com.vaadin.addon.touchkit.settings;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class ApplicationCacheSettingsTest {
+
+    private static final String[][] USER_AGENTS = {
+            { "safari", null },
+            {
+                    "safari",
+                    "Mozilla/5.0 (iPhone; CPU iPhone OS 7_0 like Mac OS X) AppleWebKit/537.51.1 (KHTML, like Gecko) Version/7.0 Mobile/11A465 Safari/9537.53" },
+            {
+                    "safari",
+                    "Mozilla/5.0 (Linux; Android 4.4.2; Nexus 5 Build/KOT49H) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/33.0.1750.136 Mobile Safari/537.36" },
+            { "opera",
+                    "Opera/9.80 (Windows NT 6.1) Presto/2.12.388 Version/12.16" },
+            { "ie8",
+                    "Mozilla/4.0 (compatible; MSIE 8.0; Windows NT 6.1; Trident/4.0)" },
+            { "ie9",
+                    "Mozilla/5.0 (compatible; MSIE 9.0; Windows NT 6.1; Trident/5.0)" },
+            {
+                    "ie10",
+                    "Mozilla/5.0 (compatible; MSIE 10.0; Windows NT 6.1; WOW64; Trident/6.0; Tablet PC 2.0)" },
+            {
+                    "ie10",
+                    "Mozilla/5.0 (compatible; MSIE 10.0; Windows Phone 8.0; Trident/6.0; IEMobile/10.0; ARM; Touch; NOKIA; Lumia 920)" },
+            // IE11 no longer claims to be MSIE
+            {
+                    "gecko1_8",
+                    "Mozilla/5.0 (Windows NT 6.1; WOW64; Trident/7.0; rv:11.0) like Gecko" },
+            {
+                    "gecko1_8",
+                    "Mozilla/5.0 (Macintosh; Intel Mac OS X 10.9; rv:27.0) Gecko/20100101 Firefox/27.0" } };
+
+    @Test
+    public void resolvesUserAgentPermutations() {
+        ApplicationCacheSettings settings = new ApplicationCacheSettings();
+        for (String[] row : USER_AGENTS) {
+            assertEquals(row[1], row[0],
+                    settings.getUserAgentPermutation(row[1]));
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package com.vaadin.touchkit.demo;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import com.vaadin.touchkit.demo.DeviceClassifier.DeviceType;
+
+public class DeviceClassifierTest {
+
+    private static final Object[][] USER_AGENTS = {
+            // Desktop IE with pen input reports "Tablet PC 2.0"
+            {
+                    DeviceType.DESKTOP,
+                    "Mozilla/5.0 (compatible; MSIE 10.0; Windows NT 6.1; WOW64; Trident/6.0; SLCC2; .NET CLR 2.0.50727; Media Center PC 6.0; Tablet PC 2.0)" },
+            {
+                    DeviceType.DESKTOP,
+                    "Mozilla/5.0 (Windows NT 6.1; WOW64; Trident/7.0; SLCC2; .NET CLR 2.0.50727; .NET4.0C; .NET4.0E; Tablet PC 2.0; rv:11.0) like Gecko" },
+            {
+                    DeviceType.DESKTOP,
+                    "Mozilla/5.0 (Windows NT 6.1; WOW64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/33.0.1750.154 Safari/537.36" },
+            {
+                    DeviceType.DESKTOP,
+                    "Mozilla/5.0 (Macintosh; Intel Mac OS X 10.9; rv:27.0) Gecko/20100101 Firefox/27.0" },
+            {
+                    DeviceType.MOBILE,
+                    "Mozilla/5.0 (iPhone; CPU iPhone OS 7_0 like Mac OS X) AppleWebKit/537.51.1 (KHTML, like Gecko) Version/7.0 Mobile/11A465 Safari/9537.53" },
+            {
+                    DeviceType.MOBILE,
+                    "Mozilla/5.0 (Linux; Android 4.4.2; Nexus 5 Build/KOT49H) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/33.0.1750.136 Mobile Safari/537.36" },
+            {
+                    DeviceType.MOBILE,
+                    "Mozilla/5.0 (BlackBerry; U; BlackBerry 9900; en) AppleWebKit/534.11+ (KHTML, like Gecko) Version/7.1.0.346 Mobile Safari/534.11+" },
+            {
+                    DeviceType.MOBILE,
+                    "Mozilla/5.0 (compatible; MSIE 10.0; Windows Phone 8.0; Trident/6.0; IEMobile/10.0; ARM; Touch; NOKIA; Lumia 920)" },
+            {
+                    DeviceType.TABLET,
+                    "Mozilla/5.0 (iPad; CPU OS 7_0 like Mac OS X) AppleWebKit/537.51.1 (KHTML, like Gecko) Version/7.0 Mobile/11A465 Safari/9537.53" },
+            {
+                    DeviceType.TABLET,
+                    "Mozilla/5.0 (Linux; Android 4.4.2; Nexus 7 Build/KOT49H) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/33.0.1750.136 Safari/537.36" },
+            {
+                    DeviceType.TABLET,
+                    "Mozilla/5.0 (Linux; U; en-us; KFTHWI Build/JDQ39) AppleWebKit/535.19 (KHTML, like Gecko) Silk/3.13 Safari/535.19 Silk-Accelerated=true" },
+            { DeviceType.TABLET,
+                    "Mozilla/5.0 (Tablet; rv:26.0) Gecko/26.0 Firefox/26.0" },
+            {
+                    DeviceType.WEBVIEW,
+                    "Mozilla/5.0 (iPhone; CPU iPhone OS 7_0 like Mac OS X) AppleWebKit/537.51.1 (KHTML, like Gecko) Mobile/11A465" },
+            {
+                    DeviceType.WEBVIEW,
+                    "Mozilla/5.0 (Linux; Android 5.1.1; Nexus 5 Build/LMY48B; wv) AppleWebKit/537.36 (KHTML, like Gecko) Version/4.0 Chrome/43.0.2357.65 Mobile Safari/537.36" },
+            {
+                    DeviceType.WEBVIEW,
+                    "Mozilla/5.0 (iPhone; CPU iPhone OS 7_1 like Mac OS X) AppleWebKit/537.51.2 (KHTML, like Gecko) Mobile/11D167 [FBAN/FBIOS;FBAV/9.0.0.25.31]" } };
+
+    @Test
+    public void classifiesUserAgents() {
+        DeviceClassifier classifier = new DeviceClassifier(100);
+        for (Object[] row : USER_AGENTS) {
+            assertEquals((String) row[1], row[0],
+                    classifier.classify((String) row[1]));
+        }
+    }
+
+    @Test
+    public void classifiesMissingUserAgentAsDesktop() {
+        assertEquals(DeviceType.DESKTOP, new DeviceClassifier(100)
+                .classify(null));
+    }
+
+    @Test
+    public void answersRepeatedUserAgentsFromCache() {
+        DeviceClassifier classifier = new DeviceClassifier(100);
+        String userAgent = (String) USER_AGENTS[4][1];
+        classifier.classify(userAgent);
+        classifier.classify(userAgent);
+        assertEquals(1, classifier.getMissCount());
+        assertEquals(1, classifier.getHitCount());
+    }
+}
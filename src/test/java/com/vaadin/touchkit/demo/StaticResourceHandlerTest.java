@@ -0,0 +1,37 @@
+package com.vaadin.touchkit.demo;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+public class StaticResourceHandlerTest {
+
+    private static final long[] IGNORED = new long[0];
+
+    private static final Object[][] RANGES = {
+            { "bytes=0-99", new long[] { 0, 99 } },
+            { "bytes=100-", new long[] { 100, 999 } },
+            { "bytes=-100", new long[] { 900, 999 } },
+            { "bytes=-2000", new long[] { 0, 999 } },
+            { "bytes=900-5000", new long[] { 900, 999 } },
+            { "bytes=999-999", new long[] { 999, 999 } },
+            // Not satisfiable
+            { "bytes=1000-", null }, { "bytes=500-100", null },
+            // Ignored, the whole file is sent
+            { "bytes=0-1,5-6", IGNORED }, { "items=0-1", IGNORED },
+            { "bytes=abc", IGNORED }, { "bytes=a-b", IGNORED } };
+
+    @Test
+    public void parsesRanges() {
+        for (Object[] row : RANGES) {
+            long[] bounds = StaticResourceHandler.parseRange((String) row[0],
+                    1000);
+            if (row[1] == null) {
+                assertNull((String) row[0], bounds);
+            } else {
+                assertArrayEquals((String) row[0], (long[]) row[1], bounds);
+            }
+        }
+    }
+}